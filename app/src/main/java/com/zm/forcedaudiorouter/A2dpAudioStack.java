@@ -0,0 +1,63 @@
+package com.zm.forcedaudiorouter;
+
+import android.bluetooth.BluetoothA2dp;
+import android.bluetooth.BluetoothDevice;
+
+import com.zm.forcedaudiorouter.core.ConnectedDevices;
+import com.zm.forcedaudiorouter.core.RoutingCore;
+
+import java.util.function.LongPredicate;
+
+/**
+ * The live A2DP proxy as seen by {@link RoutingCore}, with the connected devices taken from the
+ * mirror instead of the stack. One instance is reused for every evaluation.
+ */
+final class A2dpAudioStack implements RoutingCore.AudioStack {
+
+    private final LongPredicate switcher;
+    private final LongPredicate switching;
+
+    private BluetoothA2dp a2dp;
+    private ConnectedDevices.Snapshot<BluetoothDevice> connected;
+
+    /**
+     * @param switcher starts a switch to the device with the given MAC
+     * @param switching tells whether a switch to the device with the given MAC is in flight
+     */
+    A2dpAudioStack(LongPredicate switcher, LongPredicate switching) {
+        this.switcher = switcher;
+        this.switching = switching;
+    }
+
+    A2dpAudioStack reset(BluetoothA2dp a2dp, ConnectedDevices.Snapshot<BluetoothDevice> connected) {
+        this.a2dp = a2dp;
+        this.connected = connected;
+        return this;
+    }
+
+    @Override
+    public int connectedCount() {
+        return connected.size();
+    }
+
+    @Override
+    public long connectedMac(int index) {
+        return connected.macAt(index);
+    }
+
+    @Override
+    public boolean isActive(int index) {
+        RoutingThread.noteBinderCall("isA2dpPlaying");
+        return a2dp.isA2dpPlaying(connected.deviceAt(index));
+    }
+
+    @Override
+    public boolean isSwitching(int index) {
+        return switching.test(connected.macAt(index));
+    }
+
+    @Override
+    public boolean setActive(int index) {
+        return switcher.test(connected.macAt(index));
+    }
+}
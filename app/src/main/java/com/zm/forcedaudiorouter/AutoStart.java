@@ -9,6 +9,7 @@ public class AutoStart extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         if (intent.getAction().equals(Intent.ACTION_BOOT_COMPLETED)) {
+            ColdStartTrace.mark(ColdStartTrace.BOOT_BROADCAST);
             Intent serviceIntent = new Intent(context, ForcedAudioRouterService.class);
             if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 context.startForegroundService(serviceIntent);
@@ -0,0 +1,199 @@
+package com.zm.forcedaudiorouter;
+
+import android.bluetooth.BluetoothA2dp;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.util.SparseArray;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Holds a single long-lived profile proxy per process instead of binding a new one for every
+ * request. Requests made while the proxy is connecting are queued and run once it is ready.
+ * Requests always run on the routing thread, since they make binder calls on the proxy.
+ */
+public final class BluetoothProfileProxy<T extends BluetoothProfile> implements BluetoothProfile.ServiceListener {
+
+    private static final SparseArray<BluetoothProfileProxy<?>> proxies = new SparseArray<>();
+
+    public static BluetoothProfileProxy<BluetoothA2dp> a2dp(Context context) {
+        return of(context, BluetoothProfile.A2DP);
+    }
+
+    /**
+     * The proxy for any profile, for callers that only need the {@link BluetoothProfile} methods.
+     * The type parameter has to match the profile.
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized <T extends BluetoothProfile> BluetoothProfileProxy<T> of(Context context, int profile) {
+        BluetoothProfileProxy<?> proxy = proxies.get(profile);
+        if (proxy == null) {
+            proxy = new BluetoothProfileProxy<>(context, profile, RoutingThread.get());
+            proxies.put(profile, proxy);
+        }
+        return (BluetoothProfileProxy<T>) proxy;
+    }
+
+    private final Context context;
+    private final int profile;
+    private final Executor executor;
+
+    private T proxy;
+    private boolean connecting;
+    private final ArrayDeque<Consumer<? super T>> pending = new ArrayDeque<>();
+    private final List<Runnable> disconnectListeners = new CopyOnWriteArrayList<>();
+
+    private BluetoothProfileProxy(Context context, int profile, Executor executor) {
+        this.context = context.getApplicationContext();
+        this.profile = profile;
+        this.executor = executor;
+    }
+
+    private BluetoothAdapter getAdapter() {
+        BluetoothManager bt = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        return bt == null ? null : bt.getAdapter();
+    }
+
+    /**
+     * Runs the request on the executor with the cached proxy, or queues it until the proxy
+     * connects.
+     *
+     * @return false if there is no bluetooth adapter and the request will never run
+     */
+    public boolean withProxy(Consumer<? super T> request) {
+        T p;
+        synchronized (this) {
+            p = proxy;
+            if (p == null) {
+                if (!connect()) {
+                    return false;
+                }
+                pending.add(request);
+                return true;
+            }
+        }
+        executor.execute(() -> request.accept(p));
+        return true;
+    }
+
+    /** The listener runs when the service goes away, before the proxy reconnects. */
+    public void addDisconnectListener(Runnable listener) {
+        disconnectListeners.add(listener);
+    }
+
+    public void removeDisconnectListener(Runnable listener) {
+        disconnectListeners.remove(listener);
+    }
+
+    /** @return the proxy if it is connected right now, or null */
+    public synchronized T get() {
+        return proxy;
+    }
+
+    public int getProfile() {
+        return profile;
+    }
+
+    public synchronized boolean isConnected() {
+        return proxy != null;
+    }
+
+    private boolean connect() {
+        if (connecting) {
+            return true;
+        }
+        BluetoothAdapter adapter = getAdapter();
+        if (adapter == null) {
+            return false;
+        }
+        connecting = adapter.getProfileProxy(context, this, profile);
+        return connecting;
+    }
+
+    /** Releases every proxy, for when nothing will need one for a while. */
+    public static void closeAll() {
+        List<BluetoothProfileProxy<?>> all = new ArrayList<>();
+        synchronized (BluetoothProfileProxy.class) {
+            for (int i = 0; i < proxies.size(); i++) {
+                all.add(proxies.valueAt(i));
+            }
+        }
+        for (BluetoothProfileProxy<?> proxy : all) {
+            proxy.close();
+        }
+    }
+
+    /** Releases the proxy. Queued requests are dropped. */
+    public void close() {
+        T p;
+        synchronized (this) {
+            p = proxy;
+            proxy = null;
+            connecting = false;
+            pending.clear();
+        }
+        BluetoothAdapter adapter = getAdapter();
+        if (p != null && adapter != null) {
+            adapter.closeProfileProxy(profile, p);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onServiceConnected(int profile, BluetoothProfile connected) {
+        T p = (T) connected;
+        List<Consumer<? super T>> requests;
+        synchronized (this) {
+            if (!connecting) {
+                requests = null;
+            } else {
+                proxy = p;
+                connecting = false;
+                requests = new ArrayList<>(pending);
+                pending.clear();
+            }
+        }
+        if (requests == null) {
+            // closed while it was binding
+            BluetoothAdapter adapter = getAdapter();
+            if (adapter != null) {
+                adapter.closeProfileProxy(profile, p);
+            }
+            return;
+        }
+        if (!requests.isEmpty()) {
+            executor.execute(() -> {
+                for (Consumer<? super T> request : requests) {
+                    request.accept(p);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onServiceDisconnected(int profile) {
+        T stale;
+        synchronized (this) {
+            stale = proxy;
+            proxy = null;
+            connecting = false;
+        }
+        BluetoothAdapter adapter = getAdapter();
+        if (stale != null && adapter != null) {
+            adapter.closeProfileProxy(profile, stale);
+        }
+        for (Runnable listener : disconnectListeners) {
+            listener.run();
+        }
+        synchronized (this) {
+            connect();
+        }
+    }
+}
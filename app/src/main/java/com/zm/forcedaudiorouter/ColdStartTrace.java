@@ -0,0 +1,74 @@
+package com.zm.forcedaudiorouter;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timestamps of the steps between process start (usually the boot broadcast) and the first
+ * routing switch, in {@link SystemClock#elapsedRealtime()} milliseconds. Each step is recorded
+ * once per process.
+ */
+final class ColdStartTrace {
+
+    static final int PROCESS_START = 0;
+    static final int BOOT_BROADCAST = 1;
+    static final int APP_CREATE = 2;
+    static final int SERVICE_CREATE = 3;
+    static final int PROXY_READY = 4;
+    static final int FIRST_DECISION = 5;
+    static final int FIRST_SWITCH = 6;
+
+    private static final String[] NAMES = {
+            "process_start",
+            "boot_broadcast",
+            "app_create",
+            "service_create",
+            "proxy_ready",
+            "first_decision",
+            "first_switch"
+    };
+
+    private static final AtomicLongArray marks = new AtomicLongArray(NAMES.length);
+
+    static {
+        marks.set(PROCESS_START, Process.getStartElapsedRealtime());
+    }
+
+    private ColdStartTrace() {
+    }
+
+    /** Records the step if it has not been recorded yet. @return true if this call recorded it */
+    static boolean mark(int step) {
+        boolean first = marks.compareAndSet(step, 0, SystemClock.elapsedRealtime());
+        if (first && (step == FIRST_DECISION || step == FIRST_SWITCH)) {
+            Log.i("ColdStart", describe());
+        }
+        return first;
+    }
+
+    static long get(int step) {
+        return marks.get(step);
+    }
+
+    /** @return each recorded step as milliseconds after process start */
+    static String describe() {
+        long start = marks.get(PROCESS_START);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NAMES.length; i++) {
+            long t = marks.get(i);
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(NAMES[i]).append('=');
+            if (t == 0) {
+                sb.append('-');
+            } else {
+                sb.append('+').append(t - start).append("ms");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,126 @@
+package com.zm.forcedaudiorouter;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+
+import com.zm.forcedaudiorouter.core.RoutingConfig;
+import com.zm.forcedaudiorouter.core.StateBus;
+
+import java.util.function.UnaryOperator;
+
+import static com.zm.forcedaudiorouter.ForcedAudioRouterService.PREF_COALESCE_MAX_DELAY_MS;
+import static com.zm.forcedaudiorouter.ForcedAudioRouterService.PREF_COALESCE_QUIET_MS;
+import static com.zm.forcedaudiorouter.ForcedAudioRouterService.PREF_ENABLED;
+import static com.zm.forcedaudiorouter.ForcedAudioRouterService.PREF_FLAP_HYSTERESIS_MS;
+import static com.zm.forcedaudiorouter.ForcedAudioRouterService.PREF_MAX_SWITCHES_PER_MINUTE;
+import static com.zm.forcedaudiorouter.ForcedAudioRouterService.PREF_PLAYBACK_TRIGGER;
+import static com.zm.forcedaudiorouter.ForcedAudioRouterService.PREF_ROUTING_RULES;
+
+/**
+ * Owns the current {@link RoutingConfig}. Readers get the latest snapshot from a volatile field;
+ * updates publish a new snapshot straight away and are written back to the preferences later,
+ * with bursts of updates folded into one write.
+ */
+final class ConfigStore {
+
+    /** How long an update waits for others before it is written. */
+    private static final long PERSIST_DELAY_MILLIS = 200;
+
+    private final SharedPreferences prefs;
+    private final Handler persistHandler;
+    private final StateBus<RoutingConfig> updates = new StateBus<>();
+
+    private volatile RoutingConfig config;
+    // what the last write put in the preferences, to recognize its change callbacks
+    private RoutingConfig persisted;
+    private boolean persistQueued;
+
+    private final Runnable persist = this::persist;
+
+    // picks up edits made to the preferences by anyone else
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceChangeListener =
+            (sharedPreferences, key) -> {
+                if (key.equals(PREF_ENABLED) || key.equals(PREF_COALESCE_QUIET_MS) || key.equals(PREF_COALESCE_MAX_DELAY_MS)
+                        || key.equals(PREF_FLAP_HYSTERESIS_MS) || key.equals(PREF_MAX_SWITCHES_PER_MINUTE)
+                        || key.equals(PREF_ROUTING_RULES) || key.equals(PREF_PLAYBACK_TRIGGER)) {
+                    reload();
+                }
+            };
+
+    ConfigStore(SharedPreferences prefs, Handler persistHandler) {
+        this.prefs = prefs;
+        this.persistHandler = persistHandler;
+        config = load(prefs);
+        persisted = config;
+        updates.publish(config);
+        prefs.registerOnSharedPreferenceChangeListener(preferenceChangeListener);
+    }
+
+    private static RoutingConfig load(SharedPreferences prefs) {
+        RoutingConfig d = RoutingConfig.DEFAULT;
+        return new RoutingConfig(
+                prefs.getBoolean(PREF_ENABLED, d.enabled),
+                prefs.getLong(PREF_COALESCE_QUIET_MS, d.quietWindowMillis),
+                prefs.getLong(PREF_COALESCE_MAX_DELAY_MS, d.maxDelayMillis),
+                prefs.getLong(PREF_FLAP_HYSTERESIS_MS, d.hysteresisMillis),
+                prefs.getInt(PREF_MAX_SWITCHES_PER_MINUTE, d.maxSwitchesPerMinute),
+                prefs.getString(PREF_ROUTING_RULES, d.rules),
+                prefs.getBoolean(PREF_PLAYBACK_TRIGGER, d.playbackTrigger));
+    }
+
+    RoutingConfig get() {
+        return config;
+    }
+
+    /** Every new config, starting with the current one. */
+    StateBus<RoutingConfig> getUpdates() {
+        return updates;
+    }
+
+    /** Applies the change, publishes the result and queues it for writing. Never blocks on disk. */
+    synchronized RoutingConfig update(UnaryOperator<RoutingConfig> change) {
+        RoutingConfig next = change.apply(config);
+        if (next.equals(config)) {
+            return config;
+        }
+        config = next;
+        updates.publish(next);
+        if (!persistQueued) {
+            persistQueued = true;
+            persistHandler.postDelayed(persist, PERSIST_DELAY_MILLIS);
+        }
+        return next;
+    }
+
+    private synchronized void reload() {
+        RoutingConfig loaded = load(prefs);
+        // our own writes echo back here, and so can older ones while a newer one is queued
+        if (loaded.equals(persisted) || loaded.equals(config)) {
+            return;
+        }
+        config = loaded;
+        persisted = loaded;
+        updates.publish(loaded);
+    }
+
+    private void persist() {
+        RoutingConfig c;
+        synchronized (this) {
+            persistQueued = false;
+            c = config;
+            if (c.equals(persisted)) {
+                return;
+            }
+            persisted = c;
+        }
+        prefs.edit()
+                .putBoolean(PREF_ENABLED, c.enabled)
+                .putLong(PREF_COALESCE_QUIET_MS, c.quietWindowMillis)
+                .putLong(PREF_COALESCE_MAX_DELAY_MS, c.maxDelayMillis)
+                .putLong(PREF_FLAP_HYSTERESIS_MS, c.hysteresisMillis)
+                .putInt(PREF_MAX_SWITCHES_PER_MINUTE, c.maxSwitchesPerMinute)
+                .putString(PREF_ROUTING_RULES, c.rules)
+                .putBoolean(PREF_PLAYBACK_TRIGGER, c.playbackTrigger)
+                .apply();
+    }
+}
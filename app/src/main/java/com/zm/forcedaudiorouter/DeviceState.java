@@ -0,0 +1,32 @@
+package com.zm.forcedaudiorouter;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.zm.forcedaudiorouter.core.BTDevice;
+import com.zm.forcedaudiorouter.core.ConnectedDevices;
+import com.zm.forcedaudiorouter.core.MacAddress;
+
+import java.util.Collections;
+import java.util.List;
+
+/** What the A2DP stack looks like, as published on the engine's device state bus. */
+public final class DeviceState {
+
+    public final ConnectedDevices.Snapshot<BluetoothDevice> connected;
+
+    /** The connected devices with their names, safe to read on any thread. */
+    public final List<BTDevice> devices;
+
+    /** Packed MAC of the active device, {@link MacAddress#INVALID} for none. */
+    public final long activeMac;
+
+    public final boolean playing;
+
+    DeviceState(ConnectedDevices.Snapshot<BluetoothDevice> connected, List<BTDevice> devices,
+                long activeMac, boolean playing) {
+        this.connected = connected;
+        this.devices = Collections.unmodifiableList(devices);
+        this.activeMac = activeMac;
+        this.playing = playing;
+    }
+}
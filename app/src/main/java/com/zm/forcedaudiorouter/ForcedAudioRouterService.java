@@ -1,117 +1,53 @@
 package com.zm.forcedaudiorouter;
 
 import android.app.Service;
-import android.bluetooth.BluetoothA2dp;
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.media.MediaRouter;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 
-import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import com.zm.forcedaudiorouter.core.BTDevice;
+import com.zm.forcedaudiorouter.core.DeviceDiscovery;
+import com.zm.forcedaudiorouter.core.LongIntMap;
+import com.zm.forcedaudiorouter.core.MacAddress;
+import com.zm.forcedaudiorouter.core.RoutingConfig;
+import com.zm.forcedaudiorouter.core.RoutingJournal;
+import com.zm.forcedaudiorouter.core.RoutingRules;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.StringJoiner;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 public class ForcedAudioRouterService extends Service {
 
     private final boolean DEBUG_TOASTS = true;
 
-    private boolean enabled;
-
-    private String priorityMacAddress = null;
-
     private BluetoothManager bt;
 
     public static final String PREFS_NAMESPACE = "com.zm.forcedaudiorouter";
 
-    private void selectPriorityDevice() {
-        if (!enabled || priorityMacAddress == null || bt == null || bt.getAdapter() == null) {
-            return;
-        }
-
-        bt.getAdapter().getProfileProxy(getApplicationContext(), new BluetoothProfile.ServiceListener() {
-            @Override
-            public void onServiceConnected(int profile, BluetoothProfile proxy) {
-                BluetoothA2dp a2dp = (BluetoothA2dp) proxy;
-                Map<String, BluetoothDevice> devicesByAddress = new HashMap<>();
-                for (BluetoothDevice d : a2dp.getConnectedDevices()) {
-                    if(d.getAddress().equals(priorityMacAddress) && !a2dp.isA2dpPlaying(d)) {
-                        setActiveDevice(a2dp, d);
-                    }
-                }
-            }
-
-            @Override
-            public void onServiceDisconnected(int profile) {
-            }
-        }, BluetoothProfile.A2DP);
-    }
-
     public static final String PREF_ENABLED = "enabled";
 
-    public static final class BTDevice {
-
-        public BTDevice(String serialized) {
-            int pipe = serialized.indexOf('|');
-            this.address = serialized.substring(0,pipe);
-            this.name = serialized.substring(pipe+1);
-        }
-
-        public BTDevice(String name, String address) {
-            this.name = name;
-            this.address = address;
-        }
-
-        public final String name;
-        public final String address;
-
-        public String getName() {
-            return name;
-        }
-
-        public String getAddress() {
-            return address;
-        }
-
-        @NonNull
-        @Override
-        public String toString() {
-            return String.format("%s [%s]", name, address);
-        }
-
-        public String serialize() { return this.address + '|' + this.name; }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            BTDevice btDevice = (BTDevice) o;
-            return Objects.equals(address, btDevice.address);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(address);
-        }
-    }
-
     private static final int[] BT_CONNECTION_STATES = {
             BluetoothProfile.STATE_CONNECTED,
             BluetoothProfile.STATE_CONNECTING,
@@ -119,11 +55,30 @@ public class ForcedAudioRouterService extends Service {
             BluetoothProfile.STATE_DISCONNECTING
     };
 
+    /** Profiles a scan asks at the same time; hands-free and hearing aid sinks route audio too. */
+    private static final int[] SCAN_PROFILES = {
+            BluetoothProfile.A2DP,
+            BluetoothProfile.HEADSET,
+            BluetoothProfile.HEARING_AID
+    };
+
+    /** A profile proxy that never connects must not hold up the scan longer than this. */
+    static final long SCAN_TIMEOUT_MILLIS = 3000;
+
     public static CompletableFuture<List<? extends BTDevice>> scanForNewDevices(Context context) {
-        Log.d("d","scanning for new devices");
-        SharedPreferences prefs = context.getSharedPreferences(ForcedAudioRouterService.PREFS_NAMESPACE, Context.MODE_PRIVATE);
+        return scanForNewDevices(context, devices -> { });
+    }
 
-       final CompletableFuture<List<? extends BTDevice>> devicesFuture = new CompletableFuture<>();
+    /**
+     * Asks every profile in {@link #SCAN_PROFILES} at once and merges the answers by MAC.
+     *
+     * @param progress gets the devices found so far each time a profile answers, on the
+     *                 routing thread
+     * @return completes with every device found, or with those found by the timeout
+     */
+    public static CompletableFuture<List<? extends BTDevice>> scanForNewDevices(Context context,
+            Consumer<List<? extends BTDevice>> progress) {
+        Log.d("d","scanning for new devices");
 
         // Scan for devices and add any unknown ones to the preferences
         BluetoothManager bt = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
@@ -134,56 +89,76 @@ public class ForcedAudioRouterService extends Service {
                     new BTDevice("Fake Device 1", "00:11:22:33:44:55"),
                     new BTDevice("Fake Device 2", "AA:BB:CC:DD:EE:FF")
             );
-            devicesFuture.complete(fakeDevices);
-        } else {
-            bt.getAdapter().getProfileProxy(context, new BluetoothProfile.ServiceListener() {
-                @Override
-                public void onServiceConnected(int profile, BluetoothProfile proxy) {
-                    BluetoothA2dp a2dp = (BluetoothA2dp) proxy;
-
-                    List<ForcedAudioRouterService.BTDevice> devices = new ArrayList<>();
-
-                    boolean updated = false;
-                    // all known a2dp devices
-                    for (BluetoothDevice device : a2dp.getDevicesMatchingConnectionStates(BT_CONNECTION_STATES)) {
-                        ForcedAudioRouterService.BTDevice btDevice = new ForcedAudioRouterService.BTDevice(device.getName(), device.getAddress());
-                        if (!devices.contains(btDevice)) {
-                            Log.d("d", "found device: " + btDevice);
-                            devices.add(btDevice);
-                        }
-                    }
-
-                    devicesFuture.complete(devices);
-                }
+            return CompletableFuture.completedFuture(fakeDevices);
+        }
 
-                @Override
-                public void onServiceDisconnected(int profile) {
-                    if (!devicesFuture.isDone()) {
-                        devicesFuture.completeExceptionally(new RuntimeException("No devices found?"));
-                    }
-                }
-            }, BluetoothProfile.A2DP);
+        DeviceDiscovery discovery = new DeviceDiscovery(SCAN_PROFILES.length,
+                new HandlerScheduler(RoutingThread.get().getHandler()), SCAN_TIMEOUT_MILLIS, progress::accept);
+        for (int profile : SCAN_PROFILES) {
+            BluetoothProfileProxy<BluetoothProfile> proxy = BluetoothProfileProxy.of(context, profile);
+            if (!proxy.withProxy(p -> discovery.onFound(findDevices(p)))) {
+                discovery.onFailed();
+            }
         }
 
-        return devicesFuture;
+        return discovery.getResult().<List<? extends BTDevice>>thenApply(devices -> {
+            if (discovery.isTimedOut()) {
+                Log.w("d", "scan timed out with " + devices.size() + " devices");
+            }
+            try {
+                RouterApp.getDeviceRegistry().recordSeen(devices, System.currentTimeMillis(), SEEN_INTERVAL_MILLIS);
+            } catch (IOException e) {
+                Log.w("d", "could not record devices", e);
+            }
+            return devices;
+        });
+    }
+
+    private static List<BTDevice> findDevices(BluetoothProfile proxy) {
+        List<BTDevice> devices = new ArrayList<>();
+        LongIntMap seen = new LongIntMap();
+
+        // all known devices of the profile
+        RoutingThread.noteBinderCall("getDevicesMatchingConnectionStates");
+        for (BluetoothDevice device : proxy.getDevicesMatchingConnectionStates(BT_CONNECTION_STATES)) {
+            long mac = MacAddress.parse(device.getAddress());
+            if (seen.putIfAbsent(mac, devices.size())) {
+                RoutingThread.noteBinderCall("getName");
+                devices.add(new BTDevice(device.getName(), mac));
+            }
+        }
+        return devices;
     }
 
+    /** Legacy single priority device, migrated into the device registry. */
     public static final String PREF_PRIORITY_DEVICE = "pri_device";
 
-    private SharedPreferences.OnSharedPreferenceChangeListener preferenceChangeListener;
+    /** Legacy priority list, one "address|name" per line, migrated into the device registry. */
+    public static final String PREF_PRIORITY_DEVICES = "pri_devices";
 
-    private static String getPriorityDeviceMacAddress(SharedPreferences prefs) {
-        String priDeviceSer = prefs.getString(PREF_PRIORITY_DEVICE,null);
-        if(priDeviceSer == null) {
-            return null;
-        } else {
-            return (new BTDevice(priDeviceSer)).getAddress();
-        }
-    }
+    /** How often a scan refreshes the last-seen time of an already known device. */
+    static final long SEEN_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    public static final String PREF_COALESCE_QUIET_MS = "coalesce_quiet_ms";
+
+    public static final String PREF_COALESCE_MAX_DELAY_MS = "coalesce_max_delay_ms";
+
+    public static final String PREF_FLAP_HYSTERESIS_MS = "flap_hysteresis_ms";
+
+    public static final String PREF_MAX_SWITCHES_PER_MINUTE = "max_switches_per_minute";
+
+    /** Routing rules, see {@link com.zm.forcedaudiorouter.core.RoutingRules} for the format. */
+    public static final String PREF_ROUTING_RULES = "routing_rules";
+
+    public static final String PREF_PLAYBACK_TRIGGER = "playback_trigger";
+
+    private SharedPreferences.OnSharedPreferenceChangeListener preferenceChangeListener;
 
     @Override
     public void onCreate() {
-        // Set up bluetooth manager handle and media router callbacks
+        ColdStartTrace.mark(ColdStartTrace.SERVICE_CREATE);
+
+        // Set up bluetooth manager handle and attach to the routing engine
         Context context = getApplicationContext();
 
         if(bt != null) {
@@ -197,74 +172,168 @@ public class ForcedAudioRouterService extends Service {
 
         bt = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
 
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAMESPACE, Context.MODE_PRIVATE);
-        preferenceChangeListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
-            @Override
-            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-                if (key.equals(PREF_ENABLED)) {
-                    enabled = sharedPreferences.getBoolean(PREF_ENABLED, false);
-
-                    if(DEBUG_TOASTS) {
-                        Toast.makeText(context, "FARService " + (enabled ? "enabled" : "disabled"), Toast.LENGTH_SHORT).show();
-                    }
-                } else if (key.equals(PREF_PRIORITY_DEVICE)) {
-                    priorityMacAddress = getPriorityDeviceMacAddress(prefs);
+        // building the engine may wait for the app's own start-up work, keep it off the main thread;
+        // attach and detach run in order on the one routing thread
+        RoutingThread.get().execute(() -> RouterApp.getRoutingEngine().attach(this));
 
-                    if(DEBUG_TOASTS) {
-                        Toast.makeText(context, "FARService Primary Device: " + priorityMacAddress, Toast.LENGTH_SHORT).show();
-                    }
+        // nothing below is needed for the first routing decision
+        if(DEBUG_TOASTS) {
+            new Handler(Looper.getMainLooper()).post(() -> {
+                if (bt == null) {
+                    // destroyed before this ran
+                    return;
                 }
-            }
-        };
-        prefs.registerOnSharedPreferenceChangeListener(preferenceChangeListener);
-
-        enabled = prefs.getBoolean(PREF_ENABLED, false);
-        priorityMacAddress = getPriorityDeviceMacAddress(prefs);
-
-
-        MediaRouter router = (MediaRouter) context.getSystemService(Context.MEDIA_ROUTER_SERVICE);
-        router.addCallback(MediaRouter.ROUTE_TYPE_LIVE_AUDIO, new MediaRouter.Callback() {
-            @Override
-            public void onRouteSelected(MediaRouter router, int type, MediaRouter.RouteInfo info) {
-                selectPriorityDevice();
-            }
+                SharedPreferences prefs = context.getSharedPreferences(PREFS_NAMESPACE, Context.MODE_PRIVATE);
+                preferenceChangeListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                        if (key.equals(PREF_ENABLED)) {
+                            boolean enabled = sharedPreferences.getBoolean(PREF_ENABLED, false);
+                            Toast.makeText(context, "FARService " + (enabled ? "enabled" : "disabled"), Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(preferenceChangeListener);
 
-            @Override
-            public void onRouteUnselected(MediaRouter router, int type, MediaRouter.RouteInfo info) {
-            }
+                Toast.makeText(context, "RouterServiceStarted",Toast.LENGTH_SHORT).show();
+            });
+        }
+    }
 
-            @Override
-            public void onRouteAdded(MediaRouter router, MediaRouter.RouteInfo info) {
-                selectPriorityDevice();
-            }
+    @Override
+    public void onDestroy() {
+        RoutingThread.get().execute(() -> RouterApp.getRoutingEngine().detach(this));
+        bt = null;
+        if (preferenceChangeListener != null) {
+            getSharedPreferences(PREFS_NAMESPACE, Context.MODE_PRIVATE)
+                    .unregisterOnSharedPreferenceChangeListener(preferenceChangeListener);
+        }
+        super.onDestroy();
+    }
 
-            @Override
-            public void onRouteRemoved(MediaRouter router, MediaRouter.RouteInfo info) {
-                selectPriorityDevice();
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        RoutingEngine engine = RouterApp.getRoutingEngine();
+        HiddenA2dpApi hidden = HiddenA2dpApi.get();
+
+        // dumpsys activity service .ForcedAudioRouterService journal [save]
+        if (args != null && args.length > 0 && args[0].equals("journal")) {
+            if (args.length > 1 && args[1].equals("save")) {
+                saveJournal(engine.getJournal(), writer);
+            } else {
+                writer.println("now=" + SystemClock.elapsedRealtime() + " (elapsed realtime ms)");
+                engine.getJournal().dump(writer, "");
             }
+            return;
+        }
+        if (args != null && args.length > 0 && args[0].equals("config")) {
+            updateConfig(args, writer);
+            return;
+        }
 
-            @Override
-            public void onRouteChanged(MediaRouter router, MediaRouter.RouteInfo info) {
-                selectPriorityDevice();
-            }
+        writer.println("ForcedAudioRouter");
+        writer.println("  cold start: " + ColdStartTrace.describe());
+        writer.println("  hidden api: setActiveDevice=" + hidden.setActiveDeviceSupport()
+                + " getActiveDevice=" + hidden.getActiveDeviceSupport()
+                + " codecs=" + hidden.codecSupport());
+        writer.println("  config: " + RouterApp.getConfigStore().get());
+        writer.println("  routing: " + (engine.isRunning() ? "running" : "idle")
+                + " trigger=" + (engine.isPlaybackTriggered() ? "playback" : "route"));
+        writer.println("  rules: " + engine.getRules().size() + " over " + engine.getRules().deviceCount() + " devices");
+        writer.println("  coalescing: quiet=" + engine.getRouteEvents().getQuietWindowMillis()
+                + "ms max_delay=" + engine.getRouteEvents().getMaxDelayMillis() + "ms");
+        writer.println("  active device: " + engine.getActiveDevice());
+        writer.println("  connected: " + engine.getConnectedDevices());
+        writer.println("  discovery: " + RouterApp.getDiscoveryCache());
+        engine.getSwitches().dump(writer, "  ");
+        engine.getFlapGuard().dump(writer, "  ", SystemClock.uptimeMillis());
+        writer.println("  metrics:");
+        engine.getMetrics().dump(writer, "    ");
+        writer.println("  journal: " + engine.getJournal().getRecorded()
+                + " recorded, dump with the journal argument");
+    }
 
-            @Override
-            public void onRouteGrouped(MediaRouter router, MediaRouter.RouteInfo info, MediaRouter.RouteGroup group, int index) {
+    /**
+     * The settings the app has no screen for, from adb:
+     *
+     * <pre>
+     * dumpsys activity service .ForcedAudioRouterService config enabled true|false
+     * dumpsys activity service .ForcedAudioRouterService config coalescing QUIET_MS MAX_DELAY_MS
+     * dumpsys activity service .ForcedAudioRouterService config flap HYSTERESIS_MS MAX_PER_MINUTE
+     * dumpsys activity service .ForcedAudioRouterService config trigger true|false
+     * dumpsys activity service .ForcedAudioRouterService config rules ['RULE' ...]
+     * </pre>
+     *
+     * Each rule is one argument, see RoutingRules for the format; no rules clears them.
+     */
+    private static void updateConfig(String[] args, PrintWriter writer) {
+        UnaryOperator<RoutingConfig> change;
+        try {
+            String key = args.length > 1 ? args[1] : "";
+            switch (key) {
+                case "enabled":
+                    boolean enabled = parseBoolean(args, 2);
+                    change = c -> c.withEnabled(enabled);
+                    break;
+                case "coalescing":
+                    long quiet = parseMillis(args, 2);
+                    long maxDelay = parseMillis(args, 3);
+                    change = c -> c.withCoalescingWindow(quiet, maxDelay);
+                    break;
+                case "flap":
+                    long hysteresis = parseMillis(args, 2);
+                    int maxPerMinute = (int) parseMillis(args, 3);
+                    change = c -> c.withFlapLimits(hysteresis, maxPerMinute);
+                    break;
+                case "trigger":
+                    boolean trigger = parseBoolean(args, 2);
+                    change = c -> c.withPlaybackTrigger(trigger);
+                    break;
+                case "rules":
+                    String rules = String.join("\n", Arrays.asList(args).subList(2, args.length));
+                    // refuse what the engine would ignore
+                    RoutingRules.compile(rules);
+                    change = c -> c.withRules(rules);
+                    break;
+                default:
+                    throw new IllegalArgumentException("expected enabled, coalescing, flap, trigger or rules");
             }
+        } catch (IllegalArgumentException e) {
+            writer.println("config not changed: " + e.getMessage());
+            return;
+        }
+        writer.println("config: " + RouterApp.getConfigStore().update(change));
+    }
 
-            @Override
-            public void onRouteUngrouped(MediaRouter router, MediaRouter.RouteInfo info, MediaRouter.RouteGroup group) {
-            }
+    private static boolean parseBoolean(String[] args, int i) {
+        if (i < args.length && (args[i].equals("true") || args[i].equals("false"))) {
+            return args[i].equals("true");
+        }
+        throw new IllegalArgumentException("expected true or false");
+    }
 
-            @Override
-            public void onRouteVolumeChanged(MediaRouter router, MediaRouter.RouteInfo info) {
-            }
-        });
+    private static long parseMillis(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("missing value");
+        }
+        long value = Long.parseLong(args[i]);
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value " + value);
+        }
+        return value;
+    }
 
-        selectPriorityDevice();
+    /** Binary journal in the app's files, decoded off the device with RoutingJournal.decode. */
+    static final String JOURNAL_FILE = "journal.bin";
 
-        if(DEBUG_TOASTS)
-        Toast.makeText(context, "RouterServiceStarted",Toast.LENGTH_SHORT).show();
+    private void saveJournal(RoutingJournal journal, PrintWriter writer) {
+        File file = new File(getFilesDir(), JOURNAL_FILE);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            int records = journal.writeTo(out);
+            writer.println("saved " + records + " records to " + file);
+        } catch (IOException e) {
+            writer.println("could not save journal: " + e);
+        }
     }
 
     @Nullable
@@ -280,26 +349,4 @@ public class ForcedAudioRouterService extends Service {
 
         return START_STICKY;
     }
-
-    private static void setActiveDevice(BluetoothA2dp bta2dp, BluetoothDevice device) {
-        try {
-            Method forName = Class.forName("java.lang.Class").getMethod("forName", String.class);
-            Method getMethod = Class.forName("java.lang.Class").getMethod("getMethod", String.class, Class[].class);
-
-            Class bta2dpclass = (Class) forName.invoke(null, "android.bluetooth.BluetoothA2dp");
-            Class[] setActiveParams = {BluetoothDevice.class};
-            Method setActiveDevice = (Method) getMethod.invoke(bta2dpclass, "setActiveDevice", setActiveParams);
-
-            setActiveDevice.invoke(bta2dp, device);
-
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-        } catch (NoSuchMethodException e) {
-            e.printStackTrace();
-        }
-    }
 }
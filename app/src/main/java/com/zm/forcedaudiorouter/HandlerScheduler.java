@@ -0,0 +1,30 @@
+package com.zm.forcedaudiorouter;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.zm.forcedaudiorouter.core.RouteEventCoalescer;
+
+final class HandlerScheduler implements RouteEventCoalescer.Scheduler {
+
+    private final Handler handler;
+
+    HandlerScheduler(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public long now() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+}
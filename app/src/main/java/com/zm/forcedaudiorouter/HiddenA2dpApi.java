@@ -0,0 +1,208 @@
+package com.zm.forcedaudiorouter;
+
+import android.bluetooth.BluetoothA2dp;
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Access to the hidden {@link BluetoothA2dp} methods. The methods are looked up once per process
+ * through the double reflection trick that gets past the hidden API blacklist, and the resolved
+ * handles are reused for every call afterwards.
+ */
+public final class HiddenA2dpApi {
+
+    private static final String TAG = "HiddenA2dpApi";
+
+    public enum Status {
+        /** The method was resolved and can be invoked. */
+        AVAILABLE,
+        /** The platform does not have the method. */
+        MISSING,
+        /** The method exists but the hidden API policy refused to hand it out. */
+        BLOCKED
+    }
+
+    public enum Result {
+        /** The call went through and the stack accepted it. */
+        OK,
+        /** The call went through but the stack returned false. */
+        REJECTED,
+        /** The method could not be resolved on this platform. */
+        UNAVAILABLE,
+        /** The call threw. */
+        FAILED
+    }
+
+    private static final class Holder {
+        static final HiddenA2dpApi INSTANCE = new HiddenA2dpApi();
+    }
+
+    public static HiddenA2dpApi get() {
+        return Holder.INSTANCE;
+    }
+
+    private static final class Entry {
+        final Method method;
+        final MethodHandle handle;
+        final Status status;
+
+        Entry(Method method, MethodHandle handle, Status status) {
+            this.method = method;
+            this.handle = handle;
+            this.status = status;
+        }
+
+        boolean available() {
+            return status == Status.AVAILABLE;
+        }
+
+        Object invoke(Object receiver) throws Throwable {
+            return handle != null ? handle.invoke(receiver) : method.invoke(receiver);
+        }
+
+        Object invoke(Object receiver, Object arg) throws Throwable {
+            return handle != null ? handle.invoke(receiver, arg) : method.invoke(receiver, arg);
+        }
+
+        Object invoke(Object receiver, Object arg0, Object arg1) throws Throwable {
+            return handle != null ? handle.invoke(receiver, arg0, arg1) : method.invoke(receiver, arg0, arg1);
+        }
+    }
+
+    private final Method forName;
+    private final Method getMethod;
+
+    private final Entry setActiveDevice;
+    private final Entry getActiveDevice;
+    private final Entry getCodecStatus;
+    private final Entry setCodecConfigPreference;
+
+    private HiddenA2dpApi() {
+        Method f = null;
+        Method g = null;
+        try {
+            f = Class.forName("java.lang.Class").getMethod("forName", String.class);
+            g = Class.forName("java.lang.Class").getMethod("getMethod", String.class, Class[].class);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            Log.w(TAG, "reflection entry points unavailable", e);
+        }
+        forName = f;
+        getMethod = g;
+
+        setActiveDevice = resolve("setActiveDevice", BluetoothDevice.class);
+        getActiveDevice = resolve("getActiveDevice");
+        getCodecStatus = resolve("getCodecStatus", BluetoothDevice.class);
+        Class<?> codecConfig = findClass("android.bluetooth.BluetoothCodecConfig");
+        setCodecConfigPreference = codecConfig == null
+                ? new Entry(null, null, Status.MISSING)
+                : resolve("setCodecConfigPreference", BluetoothDevice.class, codecConfig);
+
+        Log.i(TAG, "setActiveDevice=" + setActiveDevice.status
+                + " getActiveDevice=" + getActiveDevice.status
+                + " codecs=" + codecSupport());
+    }
+
+    public Status setActiveDeviceSupport() {
+        return setActiveDevice.status;
+    }
+
+    public Status getActiveDeviceSupport() {
+        return getActiveDevice.status;
+    }
+
+    public Status codecSupport() {
+        Status a = getCodecStatus.status;
+        Status b = setCodecConfigPreference.status;
+        return a.ordinal() >= b.ordinal() ? a : b;
+    }
+
+    private Class<?> findClass(String name) {
+        if (forName == null) {
+            return null;
+        }
+        try {
+            return (Class<?>) forName.invoke(null, name);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    private Entry resolve(String name, Class<?>... params) {
+        if (getMethod == null) {
+            return new Entry(null, null, Status.BLOCKED);
+        }
+        Method m;
+        try {
+            m = (Method) getMethod.invoke(BluetoothA2dp.class, name, params);
+        } catch (InvocationTargetException e) {
+            Status status = e.getCause() instanceof NoSuchMethodException ? Status.MISSING : Status.BLOCKED;
+            return new Entry(null, null, status);
+        } catch (IllegalAccessException e) {
+            return new Entry(null, null, Status.BLOCKED);
+        }
+        MethodHandle handle = null;
+        try {
+            handle = MethodHandles.lookup().unreflect(m);
+        } catch (IllegalAccessException e) {
+            // fall back to invoking through the Method
+        }
+        return new Entry(m, handle, Status.AVAILABLE);
+    }
+
+    public Result setActiveDevice(BluetoothA2dp a2dp, BluetoothDevice device) {
+        if (!setActiveDevice.available()) {
+            return Result.UNAVAILABLE;
+        }
+        try {
+            return (Boolean) setActiveDevice.invoke(a2dp, device) ? Result.OK : Result.REJECTED;
+        } catch (Throwable t) {
+            Log.w(TAG, "setActiveDevice failed", t);
+            return Result.FAILED;
+        }
+    }
+
+    /** @return the active A2DP device, or null if there is none or it cannot be determined */
+    public BluetoothDevice getActiveDevice(BluetoothA2dp a2dp) {
+        if (!getActiveDevice.available()) {
+            return null;
+        }
+        try {
+            return (BluetoothDevice) getActiveDevice.invoke(a2dp);
+        } catch (Throwable t) {
+            Log.w(TAG, "getActiveDevice failed", t);
+            return null;
+        }
+    }
+
+    /** @return the hidden BluetoothCodecStatus for the device, or null */
+    public Object getCodecStatus(BluetoothA2dp a2dp, BluetoothDevice device) {
+        if (!getCodecStatus.available()) {
+            return null;
+        }
+        try {
+            return getCodecStatus.invoke(a2dp, device);
+        } catch (Throwable t) {
+            Log.w(TAG, "getCodecStatus failed", t);
+            return null;
+        }
+    }
+
+    /** @param codecConfig a hidden BluetoothCodecConfig instance */
+    public Result setCodecConfigPreference(BluetoothA2dp a2dp, BluetoothDevice device, Object codecConfig) {
+        if (!setCodecConfigPreference.available()) {
+            return Result.UNAVAILABLE;
+        }
+        try {
+            setCodecConfigPreference.invoke(a2dp, device, codecConfig);
+            return Result.OK;
+        } catch (Throwable t) {
+            Log.w(TAG, "setCodecConfigPreference failed", t);
+            return Result.FAILED;
+        }
+    }
+}
@@ -1,61 +1,76 @@
 package com.zm.forcedaudiorouter;
 
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.constraintlayout.widget.ConstraintLayout;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
-import android.bluetooth.BluetoothA2dp;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.text.Layout;
 import android.util.Log;
 import android.view.LayoutInflater;
-import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
-import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.CompoundButton;
-import android.widget.Spinner;
-import android.widget.SpinnerAdapter;
 import android.widget.Switch;
 import android.widget.TextView;
 
-import java.lang.reflect.Array;
+import com.zm.forcedaudiorouter.core.BTDevice;
+import com.zm.forcedaudiorouter.core.DeviceRecord;
+import com.zm.forcedaudiorouter.core.DeviceLists;
+import com.zm.forcedaudiorouter.core.DeviceRegistry;
+import com.zm.forcedaudiorouter.core.DiscoveryCache;
+import com.zm.forcedaudiorouter.core.MacAddress;
+import com.zm.forcedaudiorouter.core.RoutingConfig;
+import com.zm.forcedaudiorouter.core.StateBus;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.StringJoiner;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class MainActivity extends AppCompatActivity implements View.OnClickListener {
 
     private Switch enableSwitch;
-    private Spinner devicesSpinner;
+    private RecyclerView deviceList;
     private Button refreshButton;
     private Button saveButton;
+    private Button removeButton;
     private TextView priDeviceName;
     private TextView priDeviceMac;
-    private BTDeviceSpinnerAdapterAll spinnerAdapter;
+    private DeviceListAdapter deviceListAdapter;
+
+    private ConfigStore config;
+
+    // the buses hold listeners weakly, these fields keep them subscribed for the activity's lifetime
+    private Consumer<RoutingConfig> configListener;
+
+    private StateBus<RoutingConfig>.Subscription configSubscription;
+
+    private DeviceRegistry registry;
+
+    private Consumer<DeviceRegistry.Snapshot> registryListener;
 
-    private SharedPreferences prefs;
+    private StateBus<DeviceRegistry.Snapshot>.Subscription registrySubscription;
 
-    private SharedPreferences.OnSharedPreferenceChangeListener prefsListener;
+    private Consumer<DeviceState> deviceStateListener;
 
-    private ForcedAudioRouterService.BTDevice primaryDevice;
+    private StateBus<DeviceState>.Subscription deviceStateSubscription;
+
+    private DiscoveryCache discovery;
+
+    private RoutingEngine engine;
+
+    private Consumer<DiscoveryCache.Entry> discoveryListener;
+
+    private StateBus<DiscoveryCache.Entry>.Subscription discoverySubscription;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -63,231 +78,294 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
         final Context context = getApplicationContext();
 
-        prefs = getApplicationContext().getSharedPreferences(ForcedAudioRouterService.PREFS_NAMESPACE, MODE_PRIVATE);
-
         setContentView(R.layout.activity_main);
 
         enableSwitch = findViewById(R.id.enabled_switch);
-        devicesSpinner = findViewById(R.id.device_spinner);
-        spinnerAdapter = new BTDeviceSpinnerAdapterAll();
-        devicesSpinner.setAdapter(spinnerAdapter);
+        deviceList = findViewById(R.id.device_list);
+        deviceList.setLayoutManager(new LinearLayoutManager(this));
+        deviceListAdapter = new DeviceListAdapter();
+        deviceList.setAdapter(deviceListAdapter);
 
         refreshButton = findViewById(R.id.refresh);
         saveButton = findViewById(R.id.save);
+        removeButton = findViewById(R.id.remove);
         priDeviceName = findViewById(R.id.priority_device_name);
         priDeviceMac = findViewById(R.id.priority_device_mac);
+        setControlsEnabled(false);
 
-        prefsListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
-            @Override
-            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-                Log.d("p", "main activity pref change: " + key);
-                if (key.equals(ForcedAudioRouterService.PREF_ENABLED)) {
-                    boolean checked = sharedPreferences.getBoolean(ForcedAudioRouterService.PREF_ENABLED, false);
-                    if (enableSwitch.isChecked() != checked) {
-                        runOnUiThread(() -> {
-                            enableSwitch.setChecked(checked);
-                        });
-                    }
-                } else if (key.equals(ForcedAudioRouterService.PREF_PRIORITY_DEVICE)) {
-                    String serDevice = sharedPreferences.getString(ForcedAudioRouterService.PREF_PRIORITY_DEVICE, null);
-                    updatePrimaryDeviceTextBoxes(serDevice);
-                }
-            }
-        };
-        prefs.registerOnSharedPreferenceChangeListener(prefsListener);
-        updatePrimaryDeviceTextBoxes(prefs.getString(ForcedAudioRouterService.PREF_PRIORITY_DEVICE, null));
-        enableSwitch.setChecked(prefs.getBoolean(ForcedAudioRouterService.PREF_ENABLED, false));
-
-        enableSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+        refreshButton.setOnClickListener(new View.OnClickListener() {
             @Override
-            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                prefs.edit().putBoolean(ForcedAudioRouterService.PREF_ENABLED, isChecked).commit();
+            public void onClick(View v) {
+                discovery.refresh();
             }
         });
 
-        refreshButton.setOnClickListener(new View.OnClickListener() {
+        saveButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                scan(v.getContext());
+                BTDevice priDevice = deviceListAdapter.getSelected();
+
+                if (priDevice != null) {
+                    // the selected device goes to the top, everything else keeps its order
+                    updatePriorityDevices(priorities -> {
+                        priorities.remove(priDevice);
+                        priorities.add(0, priDevice);
+                        return true;
+                    });
+                }
             }
         });
 
-        saveButton.setOnClickListener(new View.OnClickListener() {
+        removeButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                ForcedAudioRouterService.BTDevice priDevice = (ForcedAudioRouterService.BTDevice)
-                devicesSpinner.getSelectedItem();
+                BTDevice device = deviceListAdapter.getSelected();
 
-                String ser = priDevice == null ? null : priDevice.serialize();
-                prefs.edit().putString(ForcedAudioRouterService.PREF_PRIORITY_DEVICE, ser).commit();
+                if (device != null) {
+                    updatePriorityDevices(priorities -> priorities.remove(device));
+                }
             }
         });
 
         // bind or start the service?
         context.startService(new Intent(context, ForcedAudioRouterService.class));
 
-        scan(context);
+        // building these reads the preferences and may migrate the registry file, so they are
+        // fetched on the routing thread and handed back to the main thread
+        RoutingThread.get().execute(() -> {
+            ConfigStore config = RouterApp.getConfigStore();
+            DeviceRegistry registry = RouterApp.getDeviceRegistry();
+            DiscoveryCache discovery = RouterApp.getDiscoveryCache();
+            RoutingEngine engine = RouterApp.getRoutingEngine();
+            // publishes the first snapshot, which the subscription below picks up
+            registry.load();
+            getMainExecutor().execute(() -> {
+                if (!isDestroyed()) {
+                    onReady(config, registry, discovery, engine);
+                }
+            });
+        });
     }
 
-    private void updatePrimaryDeviceTextBoxes(String serDevice) {
-        if(serDevice == null) {
-            priDeviceName.setText("None");
-            priDeviceMac.setText("N/A");
-        } else {
-            ForcedAudioRouterService.BTDevice priDevice = new ForcedAudioRouterService.BTDevice(serDevice);
-            priDeviceName.setText(priDevice.getName());
-            priDeviceMac.setText(priDevice.getAddress());
-        }
+    private void onReady(ConfigStore config, DeviceRegistry registry, DiscoveryCache discovery, RoutingEngine engine) {
+        this.config = config;
+        this.registry = registry;
+        this.discovery = discovery;
+        this.engine = engine;
+
+        configListener = c -> {
+            if (enableSwitch.isChecked() != c.enabled) {
+                enableSwitch.setChecked(c.enabled);
+            }
+        };
+        configSubscription = config.getUpdates().subscribe(getMainExecutor(), configListener);
+        enableSwitch.setChecked(config.get().enabled);
+        enableSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                config.update(c -> c.withEnabled(isChecked));
+            }
+        });
+
+        // the registry locks around its file writes, the UI only reads the snapshots it publishes
+        registryListener = snapshot -> {
+            updatePriorityDeviceTextBoxes(toDevices(snapshot.priority));
+            showKnownDevices();
+        };
+        registrySubscription = registry.getSnapshots().subscribe(getMainExecutor(), registryListener);
+
+        // the stack is only queried on refresh, or when the last scan went stale
+        deviceStateListener = state -> showKnownDevices();
+        deviceStateSubscription = engine.getDeviceStates().subscribe(getMainExecutor(), deviceStateListener);
+        discoveryListener = entry -> showKnownDevices();
+        discoverySubscription = discovery.getUpdates().subscribe(getMainExecutor(), discoveryListener);
+        discovery.getOrRefresh();
+        showKnownDevices();
+        setControlsEnabled(true);
     }
 
-    private void scan(Context context) {
-        ForcedAudioRouterService.scanForNewDevices(context)
-                .whenComplete((devices, ex) -> {
-                    if (devices != null) {
-                        runOnUiThread(() -> {
-                            spinnerAdapter.setDevices(devices);
-                        });
-                    }
-                });
+    private void setControlsEnabled(boolean enabled) {
+        enableSwitch.setEnabled(enabled);
+        refreshButton.setEnabled(enabled);
+        saveButton.setEnabled(enabled);
+        removeButton.setEnabled(enabled);
     }
 
-    public void setPrimaryDevice(ForcedAudioRouterService.BTDevice device) {
-        if (!Objects.equals(primaryDevice, device)) {
-            runOnUiThread(() -> {
-                this.primaryDevice = device;
-                prefs.edit().putString(ForcedAudioRouterService.PREF_PRIORITY_DEVICE, device.serialize()).commit();
-            });
+    @Override
+    protected void onDestroy() {
+        // still null if the activity goes before the routing thread handed anything over
+        if (configSubscription != null) {
+            discoverySubscription.close();
+            deviceStateSubscription.close();
+            registrySubscription.close();
+            configSubscription.close();
         }
+        super.onDestroy();
     }
 
-    private static class BTDeviceSpinnerAdapterAll extends BaseAdapter {
-
-        private static final Comparator<ForcedAudioRouterService.BTDevice> BTDEVICE_COMPARATOR = Comparator.comparing(ForcedAudioRouterService.BTDevice::getName).thenComparing(ForcedAudioRouterService.BTDevice::getAddress);
-        private List<ForcedAudioRouterService.BTDevice> otherDevices = Collections.emptyList();
-
-        public void setDevices(Collection<? extends ForcedAudioRouterService.BTDevice> devices) {
-            SortedSet<ForcedAudioRouterService.BTDevice> uniqueSortedDevices = new TreeSet<>(BTDEVICE_COMPARATOR);
-            uniqueSortedDevices.addAll(devices);
-            otherDevices = new ArrayList<>(uniqueSortedDevices);
-            this.notifyDataSetChanged();
+    private static List<BTDevice> toDevices(List<DeviceRecord> records) {
+        List<BTDevice> devices = new ArrayList<>(records.size());
+        for (DeviceRecord record : records) {
+            devices.add(record.toDevice());
         }
+        return devices;
+    }
 
-        @Override
-        public int getCount() {
-            return otherDevices.size();
+    private void updatePriorityDeviceTextBoxes(List<BTDevice> priorities) {
+        if(priorities.isEmpty()) {
+            priDeviceName.setText("None");
+            priDeviceMac.setText("N/A");
+        } else {
+            StringJoiner names = new StringJoiner("\n");
+            StringJoiner macs = new StringJoiner("\n");
+            for (int i = 0; i < priorities.size(); i++) {
+                names.add((i + 1) + ". " + priorities.get(i).getName());
+                macs.add(priorities.get(i).getAddress());
+            }
+            priDeviceName.setText(names.toString());
+            priDeviceMac.setText(macs.toString());
         }
+    }
 
-        @Override
-        public ForcedAudioRouterService.BTDevice getItem(int position) {
-            return otherDevices.get(position);
-        }
+    /**
+     * Edits the priority list in the background, so the write never blocks the UI. The change
+     * returns false to leave the list alone. The registry listener refreshes the text boxes.
+     */
+    private void updatePriorityDevices(Predicate<List<BTDevice>> change) {
+        RoutingThread.get().execute(() -> {
+            List<BTDevice> priorities = toDevices(registry.getPriorityDevices());
+            if (!change.test(priorities)) {
+                return;
+            }
+            try {
+                registry.setPriorityDevices(priorities);
+            } catch (IOException e) {
+                Log.w("p", "could not save priority devices", e);
+            }
+        });
+    }
 
-        @Override
-        public long getItemId(int position) {
-            return position;
+    /**
+     * Registry devices plus whatever is connected right now and whatever the last scan found,
+     * without asking the stack.
+     */
+    private void showKnownDevices() {
+        DeviceRegistry.Snapshot known = registry.getSnapshots().getLatest();
+        List<BTDevice> devices = known == null ? new ArrayList<>() : toDevices(known.all);
+        DeviceState state = engine.getDeviceStates().getLatest();
+        if (state != null) {
+            addUnregistered(devices, known, state.devices);
         }
+        DiscoveryCache.Entry scanned = discovery.getUpdates().getLatest();
+        if (scanned != null) {
+            addUnregistered(devices, known, scanned.devices);
+        }
+        deviceListAdapter.setDevices(devices);
+    }
 
-        @Override
-        public synchronized View getView(int position, View convertView, ViewGroup parent) {
-            final View v;
-            if (convertView == null) {
-                // initialize convertview
-                v = LayoutInflater.from(parent.getContext()).inflate(R.layout.spinner_device_view, parent, false);
-            } else {
-                v = convertView;
+    // the adapter drops duplicates, this only skips what the registry already has
+    private static void addUnregistered(List<BTDevice> devices, DeviceRegistry.Snapshot known, List<BTDevice> more) {
+        for (BTDevice device : more) {
+            if (known == null || known.get(device.getMac()) == null) {
+                devices.add(device);
             }
-
-            TextView deviceName = (TextView) v.findViewById(R.id.spinner_dev_name);
-            TextView deviceMac = (TextView) v.findViewById(R.id.spinner_dev_mac);
-
-            ForcedAudioRouterService.BTDevice device = this.getItem(position);
-
-            deviceName.setText(device.getName());
-            deviceMac.setText(device.getAddress());
-
-            return v;
         }
     }
 
-    private static class BTDeviceSpinnerAdapter extends BaseAdapter {
+    /**
+     * Sorted device list with one row per MAC. The MAC doubles as the stable id, and new lists
+     * are diffed against the current one off the main thread so only changed rows rebind.
+     */
+    private static class DeviceListAdapter extends ListAdapter<BTDevice, DeviceListAdapter.Holder> {
 
-        private static final Comparator<ForcedAudioRouterService.BTDevice> BTDEVICE_COMPARATOR = Comparator.comparing(ForcedAudioRouterService.BTDevice::getName).thenComparing(ForcedAudioRouterService.BTDevice::getAddress);
-        private static final ForcedAudioRouterService.BTDevice NULL_DEVICE = new ForcedAudioRouterService.BTDevice("None", "N/A");
-        private ForcedAudioRouterService.BTDevice primaryDevice = null;
-        private final TreeSet<ForcedAudioRouterService.BTDevice> otherDevices = new TreeSet<>(BTDEVICE_COMPARATOR);
+        private static final DiffUtil.ItemCallback<BTDevice> DIFF = new DiffUtil.ItemCallback<BTDevice>() {
+            @Override
+            public boolean areItemsTheSame(BTDevice oldItem, BTDevice newItem) {
+                return oldItem.getMac() == newItem.getMac();
+            }
 
-        public synchronized void setPrimaryDevice(ForcedAudioRouterService.BTDevice device) {
-            if (primaryDevice != null) {
-                otherDevices.add(primaryDevice);
+            @Override
+            public boolean areContentsTheSame(BTDevice oldItem, BTDevice newItem) {
+                return Objects.equals(oldItem.getName(), newItem.getName());
             }
-            if (device != null) {
-                otherDevices.remove(device);
+        };
+
+        static class Holder extends RecyclerView.ViewHolder {
+            final TextView name;
+            final TextView mac;
+
+            Holder(View v) {
+                super(v);
+                name = v.findViewById(R.id.device_name);
+                mac = v.findViewById(R.id.device_mac);
             }
-            primaryDevice = device;
         }
 
-        public synchronized void setOtherDevices(Collection<? extends ForcedAudioRouterService.BTDevice> devices) {
-            otherDevices.clear();
-            otherDevices.addAll(devices);
-            if (primaryDevice != null) otherDevices.remove(primaryDevice);
+        private long selectedMac = MacAddress.INVALID;
+
+        DeviceListAdapter() {
+            super(DIFF);
+            setHasStableIds(true);
         }
 
-        @Override
-        public synchronized int getCount() {
-            return 1 + otherDevices.size();
+        public void setDevices(Collection<? extends BTDevice> devices) {
+            submitList(DeviceLists.sortedUnique(devices));
         }
 
-        @Override
-        public synchronized ForcedAudioRouterService.BTDevice getItem(int position) {
-            if (position == 0) {
-                if (primaryDevice == null) {
-                    return NULL_DEVICE;
-                } else {
-                    return primaryDevice;
+        /** @return the selected device, or null if nothing is selected or it went away */
+        public BTDevice getSelected() {
+            List<BTDevice> devices = getCurrentList();
+            for (int i = 0; i < devices.size(); i++) {
+                if (devices.get(i).getMac() == selectedMac) {
+                    return devices.get(i);
                 }
-            } else {
-                return get(position - 1);
             }
+            return null;
         }
 
         @Override
-        public synchronized long getItemId(int position) {
-            return 0;
+        public long getItemId(int position) {
+            return getItem(position).getMac();
         }
 
         @Override
-        public synchronized View getView(int position, View convertView, ViewGroup parent) {
-            ConstraintLayout v = (ConstraintLayout) convertView;
-            if (v == null) {
-                // initialize convertview
-                v = (ConstraintLayout) LayoutInflater.from(parent.getContext()).inflate(R.layout.spinner_device_view, parent, false);
-            }
-
-            TextView deviceName = (TextView) v.getViewById(R.id.spinner_dev_name);
-            TextView deviceMac = (TextView) v.getViewById(R.id.spinner_dev_mac);
-
-            ForcedAudioRouterService.BTDevice device = this.getItem(position);
-
-            deviceName.setText(device.getName());
-            deviceMac.setText(device.getAddress());
+        public Holder onCreateViewHolder(ViewGroup parent, int viewType) {
+            View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.device_list_item, parent, false);
+            Holder holder = new Holder(v);
+            v.setOnClickListener(view -> select(holder));
+            return holder;
+        }
 
-            return v;
+        @Override
+        public void onBindViewHolder(Holder holder, int position) {
+            BTDevice device = getItem(position);
+            holder.name.setText(device.getName());
+            holder.mac.setText(device.getAddress());
+            holder.itemView.setActivated(device.getMac() == selectedMac);
         }
 
-        private synchronized ForcedAudioRouterService.BTDevice get(int position) {
-            Iterator<ForcedAudioRouterService.BTDevice> devItr = otherDevices.iterator();
-            while (devItr.hasNext() && position > 0) {
-                position--;
-                devItr.next();
+        private void select(Holder holder) {
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
             }
-
-            if (devItr.hasNext()) {
-                return devItr.next();
-            } else {
-                throw new IndexOutOfBoundsException();
+            int previous = indexOf(selectedMac);
+            selectedMac = getItem(position).getMac();
+            if (previous >= 0) {
+                notifyItemChanged(previous);
             }
+            notifyItemChanged(position);
         }
 
+        private int indexOf(long mac) {
+            List<BTDevice> devices = getCurrentList();
+            for (int i = 0; i < devices.size(); i++) {
+                if (devices.get(i).getMac() == mac) {
+                    return i;
+                }
+            }
+            return -1;
+        }
     }
 
 
@@ -295,7 +373,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     public void onClick(View v) {
         if (v.getId() == R.id.enabled_switch) {
             Switch enabled = (Switch) v;
-            prefs.edit().putBoolean(ForcedAudioRouterService.PREF_ENABLED, enabled.isChecked()).commit();
+            config.update(c -> c.withEnabled(enabled.isChecked()));
         }
     }
 }
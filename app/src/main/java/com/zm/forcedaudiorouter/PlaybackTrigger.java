@@ -0,0 +1,121 @@
+package com.zm.forcedaudiorouter;
+
+import android.content.Context;
+import android.media.AudioDeviceCallback;
+import android.media.AudioDeviceInfo;
+import android.media.AudioManager;
+import android.media.AudioPlaybackConfiguration;
+import android.os.Handler;
+
+import java.util.List;
+
+/**
+ * Asks for an evaluation when it can matter to the user: when playback starts and when the set
+ * of output devices changes. While nothing plays, route changes cannot be heard, so the engine
+ * can ignore them and fall back to the MediaRouter callback only during playback.
+ */
+final class PlaybackTrigger {
+
+    interface Listener {
+        /** @param playbackStarted true if audio just started, which should not wait for coalescing */
+        void onTrigger(boolean playbackStarted);
+    }
+
+    private final AudioManager audioManager;
+    private final Listener listener;
+
+    private volatile boolean playing;
+    // written on the routing thread only
+    private volatile boolean registered;
+
+    private final AudioManager.AudioPlaybackCallback playbackCallback = new AudioManager.AudioPlaybackCallback() {
+        @Override
+        public void onPlaybackConfigChanged(List<AudioPlaybackConfiguration> configs) {
+            boolean nowPlaying = isMusicActive();
+            boolean started = nowPlaying && !playing;
+            playing = nowPlaying;
+            if (started) {
+                listener.onTrigger(true);
+            }
+        }
+    };
+
+    private final AudioDeviceCallback deviceCallback = new AudioDeviceCallback() {
+        @Override
+        public void onAudioDevicesAdded(AudioDeviceInfo[] added) {
+            if (hasOutput(added)) {
+                listener.onTrigger(false);
+            }
+        }
+
+        @Override
+        public void onAudioDevicesRemoved(AudioDeviceInfo[] removed) {
+            if (hasOutput(removed)) {
+                listener.onTrigger(false);
+            }
+        }
+    };
+
+    PlaybackTrigger(Context context, Listener listener) {
+        this.audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        this.listener = listener;
+    }
+
+    private static boolean hasOutput(AudioDeviceInfo[] devices) {
+        for (AudioDeviceInfo device : devices) {
+            if (device.isSink()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The playback configurations list every player the audio service knows, paused, stopped and
+     * idle ones included, and the player state that tells them apart is a system API. Whether the
+     * music stream is active is what decides if a route change can be heard, and A2DP media
+     * playback always goes through that stream.
+     */
+    private boolean isMusicActive() {
+        RoutingThread.noteBinderCall("isMusicActive");
+        return audioManager.isMusicActive();
+    }
+
+    /**
+     * Registers the callbacks, which run on the handler. Registering the device callback reports
+     * the current devices, which triggers one evaluation straight away.
+     *
+     * @return false if there is no audio service to listen to
+     */
+    boolean start(Handler handler) {
+        if (registered) {
+            return true;
+        }
+        if (audioManager == null) {
+            return false;
+        }
+        playing = isMusicActive();
+        audioManager.registerAudioPlaybackCallback(playbackCallback, handler);
+        audioManager.registerAudioDeviceCallback(deviceCallback, handler);
+        registered = true;
+        return true;
+    }
+
+    void stop() {
+        if (!registered) {
+            return;
+        }
+        audioManager.unregisterAudioPlaybackCallback(playbackCallback);
+        audioManager.unregisterAudioDeviceCallback(deviceCallback);
+        registered = false;
+    }
+
+    boolean isStarted() {
+        return registered;
+    }
+
+    /** @return true if the music stream was active at the last callback */
+    boolean isPlaying() {
+        return playing;
+    }
+}
@@ -1,191 +1,131 @@
 package com.zm.forcedaudiorouter;
 
 import android.app.Application;
-import android.bluetooth.BluetoothA2dp;
-import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
-import android.media.MediaRouter;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import com.zm.forcedaudiorouter.core.BTDevice;
+import com.zm.forcedaudiorouter.core.DeviceRegistry;
+import com.zm.forcedaudiorouter.core.DiscoveryCache;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.function.Consumer;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public class RouterApp extends Application {
 
 
     private static Context context;
 
-    public static void registerListener(Consumer<List<? extends Pair<Boolean, BluetoothDevice>>> listener) {
-        btListeners.add(listener);
-        scanDevices();
+    public static void selectPriorityDevice() {
+        getRoutingEngine().selectPriorityDevice();
     }
 
-    private static void scanDevices() {
-        btMan.getAdapter().getProfileProxy(context, new BluetoothProfile.ServiceListener() {
-            @Override
-            public void onServiceConnected(int profile, BluetoothProfile proxy) {
-                BluetoothA2dp a2dp = (BluetoothA2dp) proxy;
-
-                List<? extends BluetoothDevice> a2dpDevices = a2dp.getConnectedDevices();
-                List<Pair<Boolean, BluetoothDevice>> activeDevices = new ArrayList<>(a2dpDevices.size());
-                for(BluetoothDevice d : a2dpDevices) {
-                    activeDevices.add(new Pair<>(a2dp.isA2dpPlaying(d), d));
-                }
-
-                for (Consumer<List<? extends Pair<Boolean,BluetoothDevice>>> list : btListeners) {
-                    list.accept(activeDevices);
-                }
-            }
-
-            @Override
-            public void onServiceDisconnected(int profile) {
+    private static BluetoothManager btMan;
 
-            }
-        }, BluetoothProfile.A2DP);
-    }
+    private static RoutingEngine routingEngine;
 
-    private static List<String> devicePriorities = Arrays.asList("00:0A:9B:83:80:72");
+    public static final String DEVICE_REGISTRY_FILE = "devices.bin";
 
-    public static void selectPriorityDevice() {
-        btMan.getAdapter().getProfileProxy(context, new BluetoothProfile.ServiceListener() {
-            @Override
-            public void onServiceConnected(int profile, BluetoothProfile proxy) {
-                // get a list of connected devices
-                BluetoothA2dp a2dp = (BluetoothA2dp) proxy;
-                Map<String, BluetoothDevice> devicesByAddress = new HashMap<>();
-                for(BluetoothDevice d : a2dp.getConnectedDevices()) {
-                    devicesByAddress.put(d.getAddress(), d);
-                }
-
-                for(String deviceAddress : devicePriorities) {
-                    BluetoothDevice d = devicesByAddress.get(deviceAddress);
-                    if(d != null) {
-                        // only set if not currently active device.
-                        if(!a2dp.isA2dpPlaying(d)) {
-                            setActiveDevice(a2dp, d);
-                        }
-                        return;
-                    }
-                }
+    private static DeviceRegistry deviceRegistry;
 
+    private static ConfigStore configStore;
 
-            }
-            @Override
-            public void onServiceDisconnected(int profile) {
-            }
-        }, BluetoothProfile.A2DP);
+    static synchronized ConfigStore getConfigStore() {
+        if (configStore == null) {
+            configStore = new ConfigStore(
+                    context.getSharedPreferences(ForcedAudioRouterService.PREFS_NAMESPACE, Context.MODE_PRIVATE),
+                    RoutingThread.get().getHandler());
+        }
+        return configStore;
     }
 
-    public static void setActiveDevice(BluetoothDevice device) {
-        btMan.getAdapter().getProfileProxy(context, new BluetoothProfile.ServiceListener() {
-            @Override
-            public void onServiceConnected(int profile, BluetoothProfile proxy) {
-               setActiveDevice((BluetoothA2dp)proxy, device);
-            }
-
-            @Override
-            public void onServiceDisconnected(int profile) {
+    private static DiscoveryCache discoveryCache;
+
+    /**
+     * The last scan, kept until it ages out or, while routing runs, a bond, name or connection
+     * change makes it stale.
+     */
+    public static synchronized DiscoveryCache getDiscoveryCache() {
+        if (discoveryCache == null) {
+            discoveryCache = new DiscoveryCache(
+                    progress -> ForcedAudioRouterService.scanForNewDevices(context, progress),
+                    SystemClock::elapsedRealtime, DiscoveryCache.DEFAULT_TTL_MILLIS);
+        }
+        return discoveryCache;
+    }
 
+    public static synchronized DeviceRegistry getDeviceRegistry() {
+        if (deviceRegistry == null) {
+            File file = new File(context.getFilesDir(), DEVICE_REGISTRY_FILE);
+            boolean migrate = !file.exists();
+            deviceRegistry = new DeviceRegistry(file);
+            if (migrate) {
+                migrateLegacyPriorities(deviceRegistry);
             }
-        }, BluetoothProfile.A2DP);
+        }
+        return deviceRegistry;
     }
 
-    private static void setActiveDevice(BluetoothA2dp bta2dp, BluetoothDevice device) {
+    // priorities used to live in the shared preferences as "address|name" lines
+    private static void migrateLegacyPriorities(DeviceRegistry registry) {
+        SharedPreferences prefs = context.getSharedPreferences(ForcedAudioRouterService.PREFS_NAMESPACE, Context.MODE_PRIVATE);
+        String ser = prefs.getString(ForcedAudioRouterService.PREF_PRIORITY_DEVICES,
+                prefs.getString(ForcedAudioRouterService.PREF_PRIORITY_DEVICE, null));
+        if (ser == null) {
+            return;
+        }
+        List<BTDevice> devices = new ArrayList<>();
+        for (String line : ser.split("\n")) {
+            if (!line.isEmpty()) {
+                devices.add(new BTDevice(line));
+            }
+        }
         try {
-            Method forName = Class.forName("java.lang.Class").getMethod("forName", String.class);
-            Method getMethod = Class.forName("java.lang.Class").getMethod("getMethod", String.class, Class[].class);
-
-            Class bta2dpclass = (Class) forName.invoke(null, "android.bluetooth.BluetoothA2dp");
-            Class[] setActiveParams = { BluetoothDevice.class};
-            Method setActiveDevice = (Method) getMethod.invoke(bta2dpclass, "setActiveDevice", setActiveParams);
-
-            setActiveDevice.invoke(bta2dp, device);
-
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-        } catch (NoSuchMethodException e) {
-            e.printStackTrace();
+            registry.setPriorityDevices(devices);
+            prefs.edit()
+                    .remove(ForcedAudioRouterService.PREF_PRIORITY_DEVICES)
+                    .remove(ForcedAudioRouterService.PREF_PRIORITY_DEVICE)
+                    .apply();
+        } catch (IOException e) {
+            Log.w("RouterApp", "could not migrate priority devices", e);
         }
     }
 
-
-    private static BluetoothManager btMan;
+    /**
+     * Creating the engine reads the preferences and may migrate the registry file, which the
+     * application does on the routing thread; an earlier caller waits for it or does it itself.
+     */
+    public static synchronized RoutingEngine getRoutingEngine() {
+        if (routingEngine == null) {
+            routingEngine = new RoutingEngine(context, getConfigStore(), getDeviceRegistry(), getDiscoveryCache());
+        }
+        return routingEngine;
+    }
 
     @Override
     public void onCreate() {
         super.onCreate();
+        ColdStartTrace.mark(ColdStartTrace.APP_CREATE);
         context = getApplicationContext();
-        btMan = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        RoutingThread.enableMainThreadChecks();
 
+        // only starts reading the preferences file on a background thread, nothing waits for it here
+        context.getSharedPreferences(ForcedAudioRouterService.PREFS_NAMESPACE, Context.MODE_PRIVATE);
 
-        MediaRouter router = (MediaRouter) context.getSystemService(Context.MEDIA_ROUTER_SERVICE);
-        router.addCallback(MediaRouter.ROUTE_TYPE_LIVE_AUDIO, new MediaRouter.Callback() {
-            @Override
-            public void onRouteSelected(MediaRouter router, int type, MediaRouter.RouteInfo info) {
-                selectPriorityDevice();
-            }
-
-            @Override
-            public void onRouteUnselected(MediaRouter router, int type, MediaRouter.RouteInfo info) {
-
-            }
-
-            @Override
-            public void onRouteAdded(MediaRouter router, MediaRouter.RouteInfo info) {
-                selectPriorityDevice();
-            }
-
-            @Override
-            public void onRouteRemoved(MediaRouter router, MediaRouter.RouteInfo info) {
-selectPriorityDevice();
-            }
-
-            @Override
-            public void onRouteChanged(MediaRouter router, MediaRouter.RouteInfo info) {
-selectPriorityDevice();
-            }
-
-            @Override
-            public void onRouteGrouped(MediaRouter router, MediaRouter.RouteInfo info, MediaRouter.RouteGroup group, int index) {
-
-            }
-
-            @Override
-            public void onRouteUngrouped(MediaRouter router, MediaRouter.RouteInfo info, MediaRouter.RouteGroup group) {
-
-            }
-
-            @Override
-            public void onRouteVolumeChanged(MediaRouter router, MediaRouter.RouteInfo info) {
+        btMan = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
 
+        // the config store reads the preferences and the registry may migrate and sync its file
+        RoutingThread.get().execute(() -> {
+            if (getConfigStore().get().enabled) {
+                // the proxy bind is the slowest step before the first decision, start it before the registry
+                BluetoothProfileProxy.a2dp(context).withProxy(a2dp -> ColdStartTrace.mark(ColdStartTrace.PROXY_READY));
             }
+            getRoutingEngine().attach(this);
         });
     }
-
-    public static final class Pair<A,B> {
-        public Pair(A first, B second) {
-            this.first = first;
-            this.second = second;
-        }
-
-        public final A first;
-        public final B second;
-    }
-
-    private static List<Consumer<List<? extends Pair<Boolean,BluetoothDevice>>>> btListeners = new ArrayList<>();
-
 }
@@ -0,0 +1,613 @@
+package com.zm.forcedaudiorouter;
+
+import android.bluetooth.BluetoothA2dp;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothHeadset;
+import android.bluetooth.BluetoothProfile;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.MediaRouter;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.zm.forcedaudiorouter.core.ActiveDeviceTracker;
+import com.zm.forcedaudiorouter.core.BTDevice;
+import com.zm.forcedaudiorouter.core.ConfigTransition;
+import com.zm.forcedaudiorouter.core.ConnectedDevices;
+import com.zm.forcedaudiorouter.core.DeviceRegistry;
+import com.zm.forcedaudiorouter.core.DiscoveryCache;
+import com.zm.forcedaudiorouter.core.FlapGuard;
+import com.zm.forcedaudiorouter.core.LongMap;
+import com.zm.forcedaudiorouter.core.MacAddress;
+import com.zm.forcedaudiorouter.core.PriorityPolicy;
+import com.zm.forcedaudiorouter.core.RouteEventCoalescer;
+import com.zm.forcedaudiorouter.core.RoutingConfig;
+import com.zm.forcedaudiorouter.core.RoutingJournal;
+import com.zm.forcedaudiorouter.core.RoutingCore;
+import com.zm.forcedaudiorouter.core.RoutingMetrics;
+import com.zm.forcedaudiorouter.core.RoutingRules;
+import com.zm.forcedaudiorouter.core.StateBus;
+import com.zm.forcedaudiorouter.core.SwitchTracker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+
+/**
+ * The one place that listens to route changes, decides which device should be active and
+ * issues the switch. The application and the service attach to it; the MediaRouter callback is
+ * registered while at least one of them is attached and routing is enabled. Decisions,
+ * broadcasts and every binder call run on the {@link RoutingThread}.
+ */
+public final class RoutingEngine {
+
+    private static final String TAG = "RoutingEngine";
+
+    /** Hidden BluetoothA2dp.ACTION_ACTIVE_DEVICE_CHANGED. */
+    static final String ACTION_ACTIVE_DEVICE_CHANGED = "android.bluetooth.a2dp.profile.action.ACTIVE_DEVICE_CHANGED";
+
+    private final Context context;
+    private final ConfigStore config;
+    private final DeviceRegistry registry;
+    private final DiscoveryCache discovery;
+    private final MediaRouter router;
+    private final BluetoothProfileProxy<BluetoothA2dp> a2dpProxy;
+    private final RouteEventCoalescer routeEvents;
+    private final PlaybackTrigger playback;
+
+    private final Set<Object> owners = new HashSet<>();
+
+    private final RoutingMetrics metrics = new RoutingMetrics();
+    private final RoutingJournal journal =
+            new RoutingJournal(RoutingJournal.DEFAULT_CAPACITY, SystemClock::elapsedRealtime);
+    private final RoutingCore core = new RoutingCore(metrics, SystemClock::uptimeMillis);
+    private final SwitchTracker switches;
+    private final A2dpAudioStack audioStack;
+    private final ConnectedDevices<BluetoothDevice> connectedDevices =
+            new ConnectedDevices<>(device -> MacAddress.parse(device.getAddress()));
+
+    private final StateBus<DeviceState> deviceStates = new StateBus<>();
+    // routing thread only
+    private final LongMap<String> deviceNames = new LongMap<>();
+
+    private static final long NO_EVALUATION = Long.MIN_VALUE;
+
+    // trigger time of the evaluation waiting for the routing thread; later requests fold into it
+    private final AtomicLong queuedEvaluation = new AtomicLong(NO_EVALUATION);
+
+    private final Consumer<BluetoothA2dp> runQueuedEvaluation = a2dp -> {
+        long triggeredAt = queuedEvaluation.getAndSet(NO_EVALUATION);
+        if (triggeredAt != NO_EVALUATION) {
+            evaluate(a2dp, triggeredAt);
+        }
+    };
+
+    // runs the evaluation the flap guard held back, once it is allowed
+    private final Runnable retrySuppressed = this::selectPriorityDevice;
+    // routing thread only
+    private long suppressedUntil;
+
+    // the config the engine last acted on, null while detached; routing thread only
+    private RoutingConfig appliedConfig;
+    // written on the routing thread only
+    private volatile boolean running;
+
+    // held here because the bus only keeps a weak reference
+    private final Consumer<RoutingConfig> configListener = this::onConfigChanged;
+    private StateBus<RoutingConfig>.Subscription configSubscription;
+
+    // the ranking the policy was compiled from; routing thread only, like the registry writes
+    private long[] compiledOrder;
+
+    // most registry changes only record when a device was seen, the ranking stays the same
+    private final DeviceRegistry.Listener registryListener = registry -> {
+        if (compilePolicy()) {
+            selectPriorityDevice();
+        }
+    };
+
+
+    private final BroadcastReceiver a2dpReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+            long mac = device == null ? MacAddress.INVALID : MacAddress.parse(device.getAddress());
+            String action = intent.getAction();
+            if (BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED.equals(action)) {
+                onConnectionStateChanged(device, mac,
+                        intent.getIntExtra(BluetoothProfile.EXTRA_STATE, BluetoothProfile.STATE_DISCONNECTED));
+                publishDeviceState();
+                return;
+            }
+            if (BluetoothA2dp.ACTION_PLAYING_STATE_CHANGED.equals(action)) {
+                if (mac != MacAddress.INVALID) {
+                    int state = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, BluetoothA2dp.STATE_NOT_PLAYING);
+                    core.getActiveDevice().onPlayingStateChanged(mac, state == BluetoothA2dp.STATE_PLAYING);
+                    publishDeviceState();
+                }
+                return;
+            }
+            journal.record(RoutingJournal.ACTIVE_CHANGED, mac);
+            core.getActiveDevice().onActiveDeviceChanged(mac);
+            switches.onActiveReported(mac);
+            publishDeviceState();
+        }
+    };
+
+    // anything that can change what a scan finds; while idle the cache only ages out
+    private final BroadcastReceiver discoveryInvalidator = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            discovery.invalidate();
+        }
+    };
+
+    // broadcasts may have been missed while the service was gone
+    private final Runnable proxyDisconnected = connectedDevices::invalidate;
+
+    private final MediaRouter.Callback routerCallback = new MediaRouter.SimpleCallback() {
+        @Override
+        public void onRouteSelected(MediaRouter router, int type, MediaRouter.RouteInfo info) {
+            onRouteEvent();
+        }
+
+        @Override
+        public void onRouteAdded(MediaRouter router, MediaRouter.RouteInfo info) {
+            onRouteEvent();
+        }
+
+        @Override
+        public void onRouteRemoved(MediaRouter router, MediaRouter.RouteInfo info) {
+            onRouteEvent();
+        }
+
+        @Override
+        public void onRouteChanged(MediaRouter router, MediaRouter.RouteInfo info) {
+            onRouteEvent();
+        }
+    };
+
+    RoutingEngine(Context context, ConfigStore config, DeviceRegistry registry, DiscoveryCache discovery) {
+        this.context = context.getApplicationContext();
+        this.config = config;
+        this.registry = registry;
+        this.discovery = discovery;
+        this.router = (MediaRouter) this.context.getSystemService(Context.MEDIA_ROUTER_SERVICE);
+        this.a2dpProxy = BluetoothProfileProxy.a2dp(this.context);
+        HandlerScheduler scheduler = new HandlerScheduler(RoutingThread.get().getHandler());
+        this.switches = new SwitchTracker(scheduler, switchStack, metrics, this::onSwitchFinished);
+        this.audioStack = new A2dpAudioStack(switches::start, switches::isPending);
+        this.routeEvents = new RouteEventCoalescer(scheduler,
+                (firstEventAt, events) -> {
+                    metrics.add(RoutingMetrics.EVENTS_COALESCED, events - 1);
+                    evaluate(firstEventAt);
+                });
+        this.playback = new PlaybackTrigger(this.context, this::onAudioTrigger);
+    }
+
+    /**
+     * Starts routing on behalf of the owner. While routing is enabled and at least one owner is
+     * attached, the engine listens to the route callback and the A2DP broadcasts; otherwise it
+     * only follows the config, so a disabled install costs nothing per event.
+     */
+    public void attach(Object owner) {
+        synchronized (owners) {
+            if (!owners.add(owner) || owners.size() > 1) {
+                return;
+            }
+        }
+        // delivers the current config straight away, which starts routing if it is enabled
+        configSubscription = config.getUpdates().subscribe(RoutingThread.get(), configListener);
+    }
+
+    /** Stops routing on behalf of the owner. The last owner unregisters everything. */
+    public void detach(Object owner) {
+        synchronized (owners) {
+            if (!owners.remove(owner) || !owners.isEmpty()) {
+                return;
+            }
+        }
+        configSubscription.close();
+        RoutingThread.get().execute(() -> {
+            if (running) {
+                stop();
+            }
+            appliedConfig = null;
+        });
+    }
+
+    private boolean isAttached() {
+        synchronized (owners) {
+            return !owners.isEmpty();
+        }
+    }
+
+    /** Registers everything routing needs and evaluates at once. Routing thread only. */
+    private void start() {
+        running = true;
+        journal.record(RoutingJournal.ROUTING_STATE, MacAddress.INVALID, 1);
+        // the decision inputs are ready before the first evaluation is queued on the proxy
+        registry.addListener(registryListener);
+        compiledOrder = null;
+        compilePolicy();
+        IntentFilter filter = new IntentFilter(ACTION_ACTIVE_DEVICE_CHANGED);
+        filter.addAction(BluetoothA2dp.ACTION_PLAYING_STATE_CHANGED);
+        filter.addAction(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED);
+        context.registerReceiver(a2dpReceiver, filter, null, RoutingThread.get().getHandler());
+        IntentFilter invalidating = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+        invalidating.addAction(BluetoothDevice.ACTION_NAME_CHANGED);
+        invalidating.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+        invalidating.addAction(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED);
+        invalidating.addAction(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
+        context.registerReceiver(discoveryInvalidator, invalidating, null, RoutingThread.get().getHandler());
+        // the cache missed those broadcasts while idle
+        discovery.invalidate();
+        a2dpProxy.addDisconnectListener(proxyDisconnected);
+        a2dpProxy.withProxy(this::seedActiveDevice);
+        router.addCallback(MediaRouter.ROUTE_TYPE_LIVE_AUDIO, routerCallback);
+        if (appliedConfig.playbackTrigger) {
+            startPlaybackTrigger();
+        }
+        // broadcasts were missed while idle, the first evaluation reconciles the connected table
+        selectPriorityDevice();
+    }
+
+    /** Unregisters everything and releases the proxies. Routing thread only. */
+    private void stop() {
+        running = false;
+        journal.record(RoutingJournal.ROUTING_STATE, MacAddress.INVALID, 0);
+        playback.stop();
+        router.removeCallback(routerCallback);
+        context.unregisterReceiver(a2dpReceiver);
+        context.unregisterReceiver(discoveryInvalidator);
+        a2dpProxy.removeDisconnectListener(proxyDisconnected);
+        registry.removeListener(registryListener);
+        routeEvents.cancel();
+        RoutingThread.get().getHandler().removeCallbacks(retrySuppressed);
+        suppressedUntil = 0;
+        switches.cancel();
+        // closing the proxy drops a queued evaluation without running it
+        BluetoothProfileProxy.closeAll();
+        queuedEvaluation.set(NO_EVALUATION);
+        // nothing keeps these current while idle
+        core.getActiveDevice().invalidate();
+        connectedDevices.invalidate();
+    }
+
+    /** @return true while the callbacks and receivers are registered */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** @return true if the ranking changed since the policy was last compiled */
+    private boolean compilePolicy() {
+        long[] order = registry.getPriorityOrder();
+        if (Arrays.equals(order, compiledOrder)) {
+            return false;
+        }
+        compiledOrder = order;
+        core.setPolicy(PriorityPolicy.compile(order));
+        return true;
+    }
+
+    /** Asks the stack once for the active device; the broadcasts keep it current from then on. */
+    private void seedActiveDevice(BluetoothA2dp a2dp) {
+        if (core.getActiveDevice().getActive() != ActiveDeviceTracker.UNKNOWN) {
+            return;
+        }
+        RoutingThread.noteBinderCall("getActiveDevice");
+        BluetoothDevice device = HiddenA2dpApi.get().getActiveDevice(a2dp);
+        if (device != null) {
+            core.getActiveDevice().seed(MacAddress.parse(device.getAddress()));
+        }
+    }
+
+    public RouteEventCoalescer getRouteEvents() {
+        return routeEvents;
+    }
+
+    public RoutingMetrics getMetrics() {
+        return metrics;
+    }
+
+    public RoutingJournal getJournal() {
+        return journal;
+    }
+
+    private void onRouteEvent() {
+        metrics.increment(RoutingMetrics.EVENTS_RECEIVED);
+        journal.record(RoutingJournal.ROUTE_EVENT, MacAddress.INVALID);
+        if (playback.isStarted() && !playback.isPlaying()) {
+            // nobody can hear where audio goes; playback starting will evaluate
+            metrics.increment(RoutingMetrics.EVALUATIONS_AVOIDED);
+            return;
+        }
+        routeEvents.onEvent();
+    }
+
+    private void onAudioTrigger(boolean playbackStarted) {
+        metrics.increment(RoutingMetrics.AUDIO_TRIGGERS);
+        journal.record(RoutingJournal.AUDIO_TRIGGER, MacAddress.INVALID, playbackStarted ? 1 : 0);
+        routeEvents.onEvent();
+        if (playbackStarted) {
+            // the first frames are already on their way, waiting for more events only delays the switch
+            routeEvents.flush();
+        }
+    }
+
+    private void startPlaybackTrigger() {
+        if (!playback.start(RoutingThread.get().getHandler())) {
+            Log.w(TAG, "no audio service, evaluating every route change");
+        }
+    }
+
+    /** @return true if evaluations follow playback and output devices rather than every route change */
+    public boolean isPlaybackTriggered() {
+        return playback.isStarted();
+    }
+
+    private void onConfigChanged(RoutingConfig next) {
+        RoutingConfig previous = appliedConfig;
+        if (next.equals(previous)) {
+            return;
+        }
+        appliedConfig = next;
+        if (previous == null || next.quietWindowMillis != previous.quietWindowMillis
+                || next.maxDelayMillis != previous.maxDelayMillis) {
+            routeEvents.setWindow(next.quietWindowMillis, next.maxDelayMillis);
+        }
+        if (previous == null || next.hysteresisMillis != previous.hysteresisMillis
+                || next.maxSwitchesPerMinute != previous.maxSwitchesPerMinute) {
+            core.getFlapGuard().setLimits(next.hysteresisMillis, next.maxSwitchesPerMinute);
+        }
+        boolean rulesChanged = previous == null || !next.rules.equals(previous.rules);
+        if (rulesChanged) {
+            try {
+                core.setRules(RoutingRules.compile(next.rules));
+            } catch (IllegalArgumentException e) {
+                // keep routing by the priority list rather than by half the rules
+                Log.w(TAG, "ignoring routing rules: " + e.getMessage());
+                core.setRules(RoutingRules.EMPTY);
+            }
+        }
+        int actions = ConfigTransition.of(previous, next, isAttached(), running);
+        if ((actions & ConfigTransition.START) != 0) {
+            start();
+        } else if ((actions & ConfigTransition.STOP) != 0) {
+            stop();
+        } else if ((actions & ConfigTransition.RELEASE) != 0) {
+            // the app binds the proxy early for a fast first decision, which idle does not need
+            BluetoothProfileProxy.closeAll();
+        }
+        if (running && (actions & ConfigTransition.START_TRIGGER) != 0) {
+            startPlaybackTrigger();
+        } else if (running && (actions & ConfigTransition.STOP_TRIGGER) != 0) {
+            playback.stop();
+        }
+        if (running && (actions & ConfigTransition.RESELECT) != 0) {
+            selectPriorityDevice();
+        }
+    }
+
+    /**
+     * Connected and active devices, republished on every change. Subscribers get the latest
+     * state straight away, without a scan.
+     */
+    public StateBus<DeviceState> getDeviceStates() {
+        return deviceStates;
+    }
+
+    /** The connected A2DP devices as of the last broadcast. */
+    public ConnectedDevices<BluetoothDevice> getConnectedDevices() {
+        return connectedDevices;
+    }
+
+    public ActiveDeviceTracker getActiveDevice() {
+        return core.getActiveDevice();
+    }
+
+    public PriorityPolicy getPolicy() {
+        return core.getPolicy();
+    }
+
+    public RoutingRules getRules() {
+        return core.getRules();
+    }
+
+    public void selectPriorityDevice() {
+        evaluate(SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Queues an evaluation on the routing thread. At most one waits at a time: a request made
+     * while another is still queued is folded into it, since both would read the same state. The
+     * queued one keeps the earlier trigger time, so event-to-switch latency counts from the first
+     * event that asked.
+     *
+     * @param triggeredAt uptime of the event that asked for this evaluation
+     */
+    private void evaluate(long triggeredAt) {
+        if (!running || !core.hasPolicy()) {
+            return;
+        }
+        if (!queuedEvaluation.compareAndSet(NO_EVALUATION, triggeredAt)) {
+            metrics.increment(RoutingMetrics.EVALUATIONS_SUPERSEDED);
+            return;
+        }
+        if (!a2dpProxy.withProxy(runQueuedEvaluation)) {
+            queuedEvaluation.set(NO_EVALUATION);
+        }
+    }
+
+    private void evaluate(BluetoothA2dp a2dp, long triggeredAt) {
+        ColdStartTrace.mark(ColdStartTrace.FIRST_DECISION);
+        reconcileConnectedDevices(a2dp);
+        int outcome = core.evaluate(audioStack.reset(a2dp, connectedDevices.snapshot()));
+        journal.record(RoutingJournal.EVALUATION, MacAddress.INVALID, outcome);
+        if (outcome == RoutingCore.SWITCHED) {
+            metrics.eventToSwitch.record(SystemClock.uptimeMillis() - triggeredAt);
+        } else if (outcome == RoutingCore.SUPPRESSED) {
+            onSwitchSuppressed();
+        }
+    }
+
+    /**
+     * Something keeps moving audio away, or the switch budget is spent. No route event may come
+     * to wake the router once it is allowed again, so it asks for one itself.
+     */
+    private void onSwitchSuppressed() {
+        long retryAt = core.getRetryAt();
+        journal.record(RoutingJournal.SWITCH_SUPPRESSED, core.getSuppressedDevice());
+        if (retryAt == suppressedUntil) {
+            return;
+        }
+        suppressedUntil = retryAt;
+        Handler handler = RoutingThread.get().getHandler();
+        handler.removeCallbacks(retrySuppressed);
+        handler.postAtTime(retrySuppressed, retryAt);
+        long now = SystemClock.uptimeMillis();
+        long mac = core.getSuppressedDevice();
+        if (core.getFlapGuard().isHeld(mac, now)) {
+            Log.w(TAG, "audio keeps moving away from " + MacAddress.format(mac) + ", backing off for "
+                    + (retryAt - now) + "ms");
+        }
+    }
+
+    public FlapGuard getFlapGuard() {
+        return core.getFlapGuard();
+    }
+
+    /** Fills the mirror with a full query, only when it could be stale. */
+    private void reconcileConnectedDevices(BluetoothA2dp a2dp) {
+        if (!connectedDevices.isValid()) {
+            RoutingThread.noteBinderCall("getConnectedDevices");
+            connectedDevices.reconcile(a2dp.getConnectedDevices());
+            publishDeviceState();
+        }
+    }
+
+    private String nameOf(BluetoothDevice device, long mac) {
+        String name = deviceNames.get(mac);
+        if (name == null) {
+            RoutingThread.noteBinderCall("getName");
+            name = device.getName();
+            deviceNames.put(mac, name == null ? "" : name);
+        }
+        return name;
+    }
+
+    private void publishDeviceState() {
+        ConnectedDevices.Snapshot<BluetoothDevice> connected = connectedDevices.snapshot();
+        List<BTDevice> devices = new ArrayList<>(connected.size());
+        for (int i = 0; i < connected.size(); i++) {
+            devices.add(new BTDevice(nameOf(connected.deviceAt(i), connected.macAt(i)), connected.macAt(i)));
+        }
+        ActiveDeviceTracker active = core.getActiveDevice();
+        long mac = active.getActive();
+        deviceStates.publish(new DeviceState(connected, devices,
+                mac == ActiveDeviceTracker.UNKNOWN ? MacAddress.INVALID : mac, active.isPlaying()));
+    }
+
+    private void onConnectionStateChanged(BluetoothDevice device, long mac, int state) {
+        if (mac == MacAddress.INVALID) {
+            return;
+        }
+        if (state != BluetoothProfile.STATE_CONNECTED) {
+            journal.record(RoutingJournal.DISCONNECTED, mac);
+            connectedDevices.onDisconnected(mac);
+            // the route callback may not follow, and if it does the coalescer folds the two
+            onRouteEvent();
+            return;
+        }
+        journal.record(RoutingJournal.CONNECTED, mac);
+        connectedDevices.onConnected(device);
+        // the name may have changed since it was last connected
+        deviceNames.remove(mac);
+        try {
+            registry.recordSeen(Collections.singletonList(new BTDevice(nameOf(device, mac), mac)),
+                    System.currentTimeMillis(), ForcedAudioRouterService.SEEN_INTERVAL_MILLIS);
+        } catch (IOException e) {
+            Log.w(TAG, "could not record " + device.getAddress(), e);
+        }
+        onRouteEvent();
+    }
+
+    // switches are made on the connected device with that MAC, through the current proxy
+    private final SwitchTracker.Stack switchStack = new SwitchTracker.Stack() {
+        @Override
+        public SwitchTracker.Result issue(long mac) {
+            BluetoothA2dp a2dp = a2dpProxy.get();
+            if (a2dp == null) {
+                // reconnecting, worth another try
+                return SwitchTracker.Result.FAILED;
+            }
+            ConnectedDevices.Snapshot<BluetoothDevice> connected = connectedDevices.snapshot();
+            int i = connected.indexOf(mac);
+            if (i < 0) {
+                return SwitchTracker.Result.NOT_CONNECTED;
+            }
+            journal.record(RoutingJournal.SWITCH_ISSUED, mac);
+            RoutingThread.noteBinderCall("setActiveDevice");
+            HiddenA2dpApi.Result result = HiddenA2dpApi.get().setActiveDevice(a2dp, connected.deviceAt(i));
+            switch (result) {
+                case OK:
+                    ColdStartTrace.mark(ColdStartTrace.FIRST_SWITCH);
+                    return SwitchTracker.Result.ACCEPTED;
+                case REJECTED:
+                    return SwitchTracker.Result.REJECTED;
+                case UNAVAILABLE:
+                    metrics.increment(RoutingMetrics.REFLECTION_FAILURES);
+                    return SwitchTracker.Result.UNAVAILABLE;
+                default:
+                    metrics.increment(RoutingMetrics.REFLECTION_FAILURES);
+                    return SwitchTracker.Result.FAILED;
+            }
+        }
+
+        @Override
+        public long readActive() {
+            BluetoothA2dp a2dp = a2dpProxy.get();
+            if (a2dp == null || HiddenA2dpApi.get().getActiveDeviceSupport() != HiddenA2dpApi.Status.AVAILABLE) {
+                // the tracker already holds the target the core assumed, which would confirm the
+                // switch by itself; only the broadcast can confirm it now
+                return ActiveDeviceTracker.UNKNOWN;
+            }
+            RoutingThread.noteBinderCall("getActiveDevice");
+            BluetoothDevice device = HiddenA2dpApi.get().getActiveDevice(a2dp);
+            return device == null ? MacAddress.INVALID : MacAddress.parse(device.getAddress());
+        }
+    };
+
+    private void onSwitchFinished(long target, SwitchTracker.Result result, long readBack) {
+        if (result == SwitchTracker.Result.CONFIRMED) {
+            journal.record(RoutingJournal.SWITCH_CONFIRMED, target);
+        } else if (result != SwitchTracker.Result.SUPERSEDED) {
+            journal.record(RoutingJournal.SWITCH_FAILED, target, result.ordinal());
+        }
+        if (result == SwitchTracker.Result.CONFIRMED || result == SwitchTracker.Result.SUPERSEDED) {
+            return;
+        }
+        Log.w(TAG, "switch to " + MacAddress.format(target) + ": " + result);
+        // the core assumed the switch took; put back what the stack says instead
+        if (readBack != ActiveDeviceTracker.UNKNOWN) {
+            core.getActiveDevice().onActiveDeviceChanged(readBack);
+        } else {
+            core.getActiveDevice().invalidate();
+        }
+    }
+
+    public SwitchTracker getSwitches() {
+        return switches;
+    }
+}
@@ -0,0 +1,71 @@
+package com.zm.forcedaudiorouter;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.StrictMode;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The thread every routing decision and bluetooth binder call runs on, so a slow stack can only
+ * hold up routing and never the UI.
+ */
+final class RoutingThread implements Executor {
+
+    private static final class Holder {
+        static final RoutingThread INSTANCE = new RoutingThread();
+    }
+
+    static RoutingThread get() {
+        return Holder.INSTANCE;
+    }
+
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    private RoutingThread() {
+        thread = new HandlerThread("routing", Process.THREAD_PRIORITY_FOREGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    Handler getHandler() {
+        return handler;
+    }
+
+    boolean isCurrentThread() {
+        return Looper.myLooper() == thread.getLooper();
+    }
+
+    /** Runs the task inline when already on the routing thread, otherwise posts it. */
+    @Override
+    public void execute(Runnable task) {
+        if (isCurrentThread()) {
+            task.run();
+        } else {
+            handler.post(task);
+        }
+    }
+
+    /**
+     * Marks a bluetooth binder call. The main thread's debug StrictMode policy flags it there;
+     * the routing thread has no policy, so calls made where they belong stay silent.
+     */
+    static void noteBinderCall(String name) {
+        if (BuildConfig.DEBUG) {
+            StrictMode.noteSlowCall("bluetooth binder call: " + name);
+        }
+    }
+
+    /** Debug builds report any slow call, which includes every binder call, made on the main thread. */
+    static void enableMainThreadChecks() {
+        if (BuildConfig.DEBUG) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectCustomSlowCalls()
+                    .penaltyLog()
+                    .build());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.zm.forcedaudiorouter.core;
+
+/**
+ * The active A2DP device as last reported by the stack's active device and playing state
+ * broadcasts, so the router can tell whether a switch is needed without asking the proxy.
+ */
+public final class ActiveDeviceTracker {
+
+    /** Nothing has been reported yet, the proxy has to be asked. */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    private long active = UNKNOWN;
+    private boolean playing;
+
+    /** @return the packed MAC of the active device, {@link MacAddress#INVALID} for none, or {@link #UNKNOWN} */
+    public synchronized long getActive() {
+        return active;
+    }
+
+    public synchronized boolean isPlaying() {
+        return playing;
+    }
+
+    /** @param mac the new active device, or {@link MacAddress#INVALID} if there is none */
+    public synchronized void onActiveDeviceChanged(long mac) {
+        if (mac != active) {
+            playing = false;
+        }
+        active = mac;
+    }
+
+    /** Sets the active device from a direct query, unless a broadcast got there first. */
+    public synchronized void seed(long mac) {
+        if (active == UNKNOWN) {
+            active = mac;
+        }
+    }
+
+    /** Only the active device can play, so a device that starts playing is the active one. */
+    public synchronized void onPlayingStateChanged(long mac, boolean playing) {
+        if (playing) {
+            active = mac;
+            this.playing = true;
+        } else if (mac == active) {
+            this.playing = false;
+        }
+    }
+
+    /** Forgets the state, for when the broadcasts stop arriving. */
+    public synchronized void invalidate() {
+        active = UNKNOWN;
+        playing = false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (active == UNKNOWN) {
+            return "unknown";
+        }
+        return MacAddress.format(active) + (playing ? " playing" : "");
+    }
+}
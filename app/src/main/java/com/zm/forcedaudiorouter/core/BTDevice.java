@@ -0,0 +1,62 @@
+package com.zm.forcedaudiorouter.core;
+
+/**
+ * A known bluetooth device. Identity is the packed MAC; the name is only for display.
+ */
+public final class BTDevice {
+
+    public BTDevice(String serialized) {
+        int pipe = serialized.indexOf('|');
+        this.mac = MacAddress.parse(serialized, 0, pipe);
+        this.address = serialized.substring(0, pipe);
+        this.name = serialized.substring(pipe + 1);
+    }
+
+    public BTDevice(String name, String address) {
+        this.name = name;
+        this.address = address;
+        this.mac = MacAddress.parse(address);
+    }
+
+    public BTDevice(String name, long mac) {
+        this.name = name;
+        this.address = MacAddress.format(mac);
+        this.mac = mac;
+    }
+
+    public final String name;
+    public final String address;
+    public final long mac;
+
+    public String getName() {
+        return name;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public long getMac() {
+        return mac;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [" + address + "]";
+    }
+
+    public String serialize() { return this.address + '|' + this.name; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BTDevice btDevice = (BTDevice) o;
+        return mac == btDevice.mac && (mac != MacAddress.INVALID || address.equals(btDevice.address));
+    }
+
+    @Override
+    public int hashCode() {
+        return mac != MacAddress.INVALID ? Long.hashCode(mac) : address.hashCode();
+    }
+}
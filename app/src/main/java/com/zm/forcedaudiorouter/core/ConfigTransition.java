@@ -0,0 +1,48 @@
+package com.zm.forcedaudiorouter.core;
+
+/**
+ * What the routing engine does to go from one applied configuration to the next. Starting or
+ * stopping routing comes first and decides alone: starting registers the playback trigger as
+ * configured and stopping unregisters it, so the trigger is only toggled on an engine that keeps
+ * running.
+ */
+public final class ConfigTransition {
+
+    public static final int START = 1;
+    public static final int STOP = 1 << 1;
+    /** Idle from the first configuration on, so what the app bound early can go. */
+    public static final int RELEASE = 1 << 2;
+    public static final int RESELECT = 1 << 3;
+    public static final int START_TRIGGER = 1 << 4;
+    public static final int STOP_TRIGGER = 1 << 5;
+
+    private ConfigTransition() {
+    }
+
+    /**
+     * @param previous the applied configuration, null before the first one
+     * @param attached whether anything wants routing to run
+     * @param running whether routing runs now
+     * @return the actions to take, in the order of their bits
+     */
+    public static int of(RoutingConfig previous, RoutingConfig next, boolean attached, boolean running) {
+        boolean run = next.enabled && attached;
+        if (run && !running) {
+            return START;
+        }
+        if (!run && running) {
+            return STOP;
+        }
+        if (!run) {
+            return previous == null ? RELEASE : 0;
+        }
+        int actions = 0;
+        if (previous == null || !next.rules.equals(previous.rules)) {
+            actions |= RESELECT;
+        }
+        if (previous != null && next.playbackTrigger != previous.playbackTrigger) {
+            actions |= next.playbackTrigger ? START_TRIGGER : STOP_TRIGGER;
+        }
+        return actions;
+    }
+}
@@ -0,0 +1,162 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.util.Collection;
+import java.util.function.ToLongFunction;
+
+/**
+ * In-memory mirror of the devices connected on a profile, kept current from connection state
+ * broadcasts. A full query is only needed to populate it, after it was invalidated because the
+ * broadcasts may have been missed. Readers get an immutable snapshot without locking.
+ *
+ * @param <D> the platform device type
+ */
+public final class ConnectedDevices<D> {
+
+    /** The connected devices at one point in time, in connection order. */
+    public static final class Snapshot<D> {
+        private final long[] macs;
+        private final Object[] devices;
+
+        Snapshot(long[] macs, Object[] devices) {
+            this.macs = macs;
+            this.devices = devices;
+        }
+
+        public int size() {
+            return macs.length;
+        }
+
+        public long macAt(int index) {
+            return macs[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        public D deviceAt(int index) {
+            return (D) devices[index];
+        }
+
+        public int indexOf(long mac) {
+            for (int i = 0; i < macs.length; i++) {
+                if (macs[i] == mac) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final Snapshot<?> EMPTY = new Snapshot<>(new long[0], new Object[0]);
+
+    private final ToLongFunction<? super D> macOf;
+    private final LongMap<D> devices = new LongMap<>();
+
+    @SuppressWarnings("unchecked")
+    private volatile Snapshot<D> snapshot = (Snapshot<D>) EMPTY;
+    private volatile boolean valid;
+
+    private long updates;
+    private long reconciles;
+
+    public ConnectedDevices(ToLongFunction<? super D> macOf) {
+        this.macOf = macOf;
+    }
+
+    public Snapshot<D> snapshot() {
+        return snapshot;
+    }
+
+    /** @return false until the first {@link #reconcile} and after {@link #invalidate} */
+    public boolean isValid() {
+        return valid;
+    }
+
+    public synchronized void onConnected(D device) {
+        long mac = macOf.applyAsLong(device);
+        if (mac == MacAddress.INVALID) {
+            return;
+        }
+        updates++;
+        Snapshot<D> current = snapshot;
+        if (devices.put(mac, device) == null) {
+            int n = current.size();
+            long[] macs = new long[n + 1];
+            Object[] objs = new Object[n + 1];
+            System.arraycopy(current.macs, 0, macs, 0, n);
+            System.arraycopy(current.devices, 0, objs, 0, n);
+            macs[n] = mac;
+            objs[n] = device;
+            snapshot = new Snapshot<>(macs, objs);
+        }
+    }
+
+    public synchronized void onDisconnected(long mac) {
+        updates++;
+        if (devices.remove(mac) == null) {
+            return;
+        }
+        Snapshot<D> current = snapshot;
+        int i = current.indexOf(mac);
+        int n = current.size();
+        long[] macs = new long[n - 1];
+        Object[] objs = new Object[n - 1];
+        System.arraycopy(current.macs, 0, macs, 0, i);
+        System.arraycopy(current.devices, 0, objs, 0, i);
+        System.arraycopy(current.macs, i + 1, macs, i, n - i - 1);
+        System.arraycopy(current.devices, i + 1, objs, i, n - i - 1);
+        snapshot = new Snapshot<>(macs, objs);
+    }
+
+    /** Replaces the contents with the result of a full query and marks the mirror valid. */
+    public synchronized void reconcile(Collection<? extends D> connected) {
+        reconciles++;
+        devices.clear();
+        long[] macs = new long[connected.size()];
+        Object[] objs = new Object[connected.size()];
+        int n = 0;
+        for (D device : connected) {
+            long mac = macOf.applyAsLong(device);
+            if (mac != MacAddress.INVALID && devices.put(mac, device) == null) {
+                macs[n] = mac;
+                objs[n] = device;
+                n++;
+            }
+        }
+        if (n < macs.length) {
+            long[] trimmedMacs = new long[n];
+            Object[] trimmedObjs = new Object[n];
+            System.arraycopy(macs, 0, trimmedMacs, 0, n);
+            System.arraycopy(objs, 0, trimmedObjs, 0, n);
+            macs = trimmedMacs;
+            objs = trimmedObjs;
+        }
+        snapshot = new Snapshot<>(macs, objs);
+        valid = true;
+    }
+
+    /** Marks the mirror stale, for when broadcasts may have been missed. */
+    public void invalidate() {
+        valid = false;
+    }
+
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    public synchronized long getReconciles() {
+        return reconciles;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(valid ? "" : "stale ").append('[');
+        Snapshot<D> s = snapshot;
+        for (int i = 0; i < s.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(MacAddress.format(s.macAt(i)));
+        }
+        return sb.append("] updates=").append(updates).append(" reconciles=").append(reconciles).toString();
+    }
+}
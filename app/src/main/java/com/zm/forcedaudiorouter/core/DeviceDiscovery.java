@@ -0,0 +1,130 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * One scan across several sources that answer independently, such as one profile proxy each.
+ * Results are merged by MAC as they arrive and each change is reported straight away. The scan
+ * completes once every source has answered, or with whatever arrived by the timeout.
+ */
+public final class DeviceDiscovery {
+
+    private final RouteEventCoalescer.Scheduler scheduler;
+    private final Consumer<List<BTDevice>> progress;
+    private final CompletableFuture<List<BTDevice>> result = new CompletableFuture<>();
+    private final Runnable timeout = this::onTimeout;
+
+    private final List<BTDevice> devices = new ArrayList<>();
+    private final LongIntMap indexOf = new LongIntMap();
+    private int pendingSources;
+    private boolean timedOut;
+
+    /**
+     * @param sources how many sources will answer through {@link #onFound} or {@link #onFailed}
+     * @param progress gets the merged list every time it changes, until the scan completes
+     */
+    public DeviceDiscovery(int sources, RouteEventCoalescer.Scheduler scheduler, long timeoutMillis,
+                           Consumer<List<BTDevice>> progress) {
+        this.scheduler = scheduler;
+        this.progress = progress;
+        this.pendingSources = sources;
+        if (sources == 0) {
+            result.complete(Collections.emptyList());
+        } else {
+            scheduler.schedule(timeout, timeoutMillis);
+        }
+    }
+
+    /** Completes with the merged devices, in the order they were first found. */
+    public CompletableFuture<List<BTDevice>> getResult() {
+        return result;
+    }
+
+    /** One source's answer. Anything arriving after the scan completed is dropped. */
+    public void onFound(Collection<BTDevice> found) {
+        List<BTDevice> changed = null;
+        List<BTDevice> done = null;
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            if (merge(found)) {
+                changed = snapshot();
+            }
+            if (--pendingSources == 0) {
+                done = snapshot();
+            }
+        }
+        finish(changed, done);
+    }
+
+    /** A source that will never answer, for example a profile the phone does not support. */
+    public void onFailed() {
+        List<BTDevice> done = null;
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            if (--pendingSources == 0) {
+                done = snapshot();
+            }
+        }
+        finish(null, done);
+    }
+
+    public synchronized boolean isTimedOut() {
+        return timedOut;
+    }
+
+    private void onTimeout() {
+        List<BTDevice> done;
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            timedOut = true;
+            done = snapshot();
+        }
+        result.complete(done);
+    }
+
+    private void finish(List<BTDevice> changed, List<BTDevice> done) {
+        if (changed != null && done == null) {
+            progress.accept(changed);
+        }
+        if (done != null) {
+            scheduler.cancel(timeout);
+            result.complete(done);
+        }
+    }
+
+    // a later source only fills in a name the earlier ones did not have
+    private boolean merge(Collection<BTDevice> found) {
+        boolean changed = false;
+        for (BTDevice device : found) {
+            int i = indexOf.get(device.getMac(), -1);
+            if (i < 0) {
+                indexOf.put(device.getMac(), devices.size());
+                devices.add(device);
+                changed = true;
+            } else if (isBlank(devices.get(i).getName()) && !isBlank(device.getName())) {
+                devices.set(i, device);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isBlank(String name) {
+        return name == null || name.isEmpty();
+    }
+
+    private List<BTDevice> snapshot() {
+        return Collections.unmodifiableList(new ArrayList<>(devices));
+    }
+}
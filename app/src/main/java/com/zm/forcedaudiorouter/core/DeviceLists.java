@@ -0,0 +1,38 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public final class DeviceLists {
+
+    public static final Comparator<BTDevice> BY_NAME_THEN_ADDRESS =
+            Comparator.comparing(BTDevice::getName, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+                    .thenComparing(BTDevice::getAddress);
+
+    private DeviceLists() {
+    }
+
+    /**
+     * @return the devices sorted by name then address, one entry per MAC. When a MAC appears more
+     * than once the last entry wins, so a fresher name replaces an older one.
+     */
+    public static List<BTDevice> sortedUnique(Collection<? extends BTDevice> devices) {
+        BTDevice[] unique = new BTDevice[devices.size()];
+        LongIntMap index = new LongIntMap(devices.size());
+        int n = 0;
+        for (BTDevice device : devices) {
+            int i = index.get(device.getMac(), -1);
+            if (i >= 0) {
+                unique[i] = device;
+            } else {
+                index.put(device.getMac(), n);
+                unique[n++] = device;
+            }
+        }
+        Arrays.sort(unique, 0, n, BY_NAME_THEN_ADDRESS);
+        return Collections.unmodifiableList(Arrays.asList(n == unique.length ? unique : Arrays.copyOf(unique, n)));
+    }
+}
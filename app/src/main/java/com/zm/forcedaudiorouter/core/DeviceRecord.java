@@ -0,0 +1,70 @@
+package com.zm.forcedaudiorouter.core;
+
+/**
+ * Everything the registry knows about one device.
+ */
+public final class DeviceRecord {
+
+    /** Rank of a device that is not in the priority list. */
+    public static final int NO_RANK = -1;
+
+    public final long mac;
+    public final String name;
+    /** Wall clock time the device was last seen by a scan, or 0. */
+    public final long lastSeen;
+    /** Position in the priority list, highest priority first, or {@link #NO_RANK}. */
+    public final int rank;
+    /** Per-device option bits. */
+    public final int options;
+
+    public DeviceRecord(long mac, String name, long lastSeen, int rank, int options) {
+        this.mac = mac;
+        this.name = name == null ? "" : name;
+        this.lastSeen = lastSeen;
+        this.rank = rank;
+        this.options = options;
+    }
+
+    public boolean isRanked() {
+        return rank != NO_RANK;
+    }
+
+    public DeviceRecord withName(String name) {
+        return new DeviceRecord(mac, name, lastSeen, rank, options);
+    }
+
+    public DeviceRecord withLastSeen(long lastSeen) {
+        return new DeviceRecord(mac, name, lastSeen, rank, options);
+    }
+
+    public DeviceRecord withRank(int rank) {
+        return new DeviceRecord(mac, name, lastSeen, rank, options);
+    }
+
+    public DeviceRecord withOptions(int options) {
+        return new DeviceRecord(mac, name, lastSeen, rank, options);
+    }
+
+    public BTDevice toDevice() {
+        return new BTDevice(name, mac);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DeviceRecord that = (DeviceRecord) o;
+        return mac == that.mac && lastSeen == that.lastSeen && rank == that.rank
+                && options == that.options && name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(mac);
+    }
+
+    @Override
+    public String toString() {
+        return name + " [" + MacAddress.format(mac) + "] rank=" + rank + " options=" + options;
+    }
+}
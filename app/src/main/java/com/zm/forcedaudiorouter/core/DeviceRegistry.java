@@ -0,0 +1,410 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Binary store of every known device.
+ *
+ * <p>The file is a versioned header followed by checksummed frames, each holding one record
+ * update or removal; the last frame for a MAC wins. The changes of one call are appended with one
+ * write and one sync, so a torn write only loses the frames it did not finish. Replacing the
+ * priority list, and appends once the file holds too many superseded frames, rewrite the whole
+ * file to a temporary and rename it over the original.
+ *
+ * <p>The file is read on first access, not when the registry is opened. Every change, and the
+ * first read, publishes a {@link Snapshot} for readers that must not wait for the file.
+ */
+public final class DeviceRegistry {
+
+    public interface Listener {
+        void onRegistryChanged(DeviceRegistry registry);
+    }
+
+    /** What the registry held at one point. Immutable. */
+    public static final class Snapshot {
+        /** Every known device, ordered by MAC. */
+        public final List<DeviceRecord> all;
+        /** The ranked devices, highest priority first. */
+        public final List<DeviceRecord> priority;
+        private final LongMap<DeviceRecord> byMac;
+
+        Snapshot(List<DeviceRecord> all, List<DeviceRecord> priority) {
+            this.all = Collections.unmodifiableList(all);
+            this.priority = Collections.unmodifiableList(priority);
+            this.byMac = new LongMap<>(all.size());
+            for (DeviceRecord record : all) {
+                byMac.put(record.mac, record);
+            }
+        }
+
+        public DeviceRecord get(long mac) {
+            return byMac.get(mac);
+        }
+    }
+
+    static final int MAGIC = 0x46415244; // "FARD"
+    static final int VERSION = 1;
+
+    private static final byte FRAME_PUT = 1;
+    private static final byte FRAME_REMOVE = 2;
+
+    private static final int MAX_FRAME = 4096;
+
+    private final File file;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final StateBus<Snapshot> snapshots = new StateBus<>();
+
+    private LongMap<DeviceRecord> records;
+    private int frames;
+    private long validLength;
+
+    public DeviceRegistry(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Snapshots of the registry, the first one once the file was read. */
+    public StateBus<Snapshot> getSnapshots() {
+        return snapshots;
+    }
+
+    /** Reads the file now if it was not read yet, which publishes the first snapshot. */
+    public synchronized void load() {
+        ensureLoaded();
+    }
+
+    // under the lock, so snapshots are published in the order of the changes
+    private void publishSnapshot() {
+        snapshots.publish(new Snapshot(sortedRecords(), rankedRecords()));
+    }
+
+    private void notifyChanged() {
+        for (Listener listener : listeners) {
+            listener.onRegistryChanged(this);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (records != null) {
+            return;
+        }
+        records = new LongMap<>();
+        frames = 0;
+        validLength = 0;
+        read();
+        publishSnapshot();
+    }
+
+    private void read() {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                // unknown format, start over on the next write
+                return;
+            }
+            validLength = 8;
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[MAX_FRAME];
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_FRAME) {
+                    break;
+                }
+                in.readFully(buffer, 0, length);
+                int checksum = in.readInt();
+                crc.reset();
+                crc.update(buffer, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                applyFrame(new DataInputStream(new ByteArrayInputStream(buffer, 0, length)));
+                frames++;
+                validLength += 8 + length;
+            }
+        } catch (EOFException e) {
+            // torn tail, everything up to validLength is good
+        } catch (IOException e) {
+            records.clear();
+            validLength = 0;
+        }
+    }
+
+    private void applyFrame(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        long mac = in.readLong();
+        if (type == FRAME_REMOVE) {
+            records.remove(mac);
+        } else if (type == FRAME_PUT) {
+            long lastSeen = in.readLong();
+            int rank = in.readInt();
+            int options = in.readInt();
+            String name = in.readUTF();
+            records.put(mac, new DeviceRecord(mac, name, lastSeen, rank, options));
+        }
+    }
+
+    private static byte[] encodeFrame(byte type, long mac, DeviceRecord record) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(type);
+        out.writeLong(mac);
+        if (record != null) {
+            out.writeLong(record.lastSeen);
+            out.writeInt(record.rank);
+            out.writeInt(record.options);
+            out.writeUTF(record.name.length() > 256 ? record.name.substring(0, 256) : record.name);
+        }
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(bytes.length + 8);
+        DataOutputStream framed = new DataOutputStream(frame);
+        framed.writeInt(bytes.length);
+        framed.write(bytes);
+        framed.writeInt((int) crc.getValue());
+        return frame.toByteArray();
+    }
+
+    private boolean needsRewrite() {
+        return validLength == 0 || frames > 2 * records.size() + 16;
+    }
+
+    private void append(byte type, long mac, DeviceRecord record) throws IOException {
+        if (needsRewrite()) {
+            rewrite();
+            return;
+        }
+        appendFrames(encodeFrame(type, mac, record), 1);
+    }
+
+    // the frames of one scan go out in one write and one sync
+    private void appendAll(List<DeviceRecord> updated) throws IOException {
+        if (needsRewrite()) {
+            rewrite();
+            return;
+        }
+        ByteArrayOutputStream batch = new ByteArrayOutputStream(updated.size() * 64);
+        for (DeviceRecord record : updated) {
+            batch.write(encodeFrame(FRAME_PUT, record.mac, record));
+        }
+        appendFrames(batch.toByteArray(), updated.size());
+    }
+
+    private void appendFrames(byte[] bytes, int count) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            // drop any torn tail left by an interrupted append
+            out.getChannel().truncate(validLength);
+            out.write(bytes);
+            out.getFD().sync();
+        }
+        frames += count;
+        validLength += bytes.length;
+    }
+
+    private void rewrite() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        int count = 0;
+        long length = 8;
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (DeviceRecord record : sortedRecords()) {
+                byte[] frame = encodeFrame(FRAME_PUT, record.mac, record);
+                out.write(frame);
+                length += frame.length;
+                count++;
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("could not replace " + file);
+        }
+        frames = count;
+        validLength = length;
+    }
+
+    private List<DeviceRecord> sortedRecords() {
+        List<DeviceRecord> all = new ArrayList<>(records.size());
+        records.forEachValue(all::add);
+        all.sort(Comparator.comparingLong(r -> r.mac));
+        return all;
+    }
+
+    public synchronized DeviceRecord get(long mac) {
+        ensureLoaded();
+        return records.get(mac);
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return records.size();
+    }
+
+    /** @return every known device, ordered by MAC */
+    public synchronized List<DeviceRecord> getAll() {
+        ensureLoaded();
+        return sortedRecords();
+    }
+
+    /** @return the ranked devices, highest priority first */
+    public synchronized List<DeviceRecord> getPriorityDevices() {
+        ensureLoaded();
+        return rankedRecords();
+    }
+
+    private List<DeviceRecord> rankedRecords() {
+        List<DeviceRecord> ranked = new ArrayList<>();
+        records.forEachValue(r -> {
+            if (r.isRanked()) {
+                ranked.add(r);
+            }
+        });
+        ranked.sort(Comparator.comparingInt(r -> r.rank));
+        return ranked;
+    }
+
+    /** @return the MACs of the ranked devices, highest priority first */
+    public long[] getPriorityOrder() {
+        List<DeviceRecord> ranked = getPriorityDevices();
+        long[] macs = new long[ranked.size()];
+        for (int i = 0; i < macs.length; i++) {
+            macs[i] = ranked.get(i).mac;
+        }
+        return macs;
+    }
+
+    /** Adds or replaces a record. */
+    public void put(DeviceRecord record) throws IOException {
+        synchronized (this) {
+            ensureLoaded();
+            if (record.equals(records.get(record.mac))) {
+                return;
+            }
+            records.put(record.mac, record);
+            append(FRAME_PUT, record.mac, record);
+            publishSnapshot();
+        }
+        notifyChanged();
+    }
+
+    public void remove(long mac) throws IOException {
+        synchronized (this) {
+            ensureLoaded();
+            if (records.remove(mac) == null) {
+                return;
+            }
+            append(FRAME_REMOVE, mac, null);
+            publishSnapshot();
+        }
+        notifyChanged();
+    }
+
+    /**
+     * Records that the devices were seen at the given time. A known device is only rewritten if
+     * its name changed or it has not been seen for a while, so repeated scans do not grow the
+     * file.
+     */
+    public void recordSeen(List<? extends BTDevice> devices, long now, long minInterval) throws IOException {
+        synchronized (this) {
+            ensureLoaded();
+            List<DeviceRecord> updated = new ArrayList<>();
+            for (BTDevice d : devices) {
+                if (!MacAddress.isValid(d.mac)) {
+                    continue;
+                }
+                // records keep a missing name as empty
+                String name = d.name == null ? "" : d.name;
+                DeviceRecord old = records.get(d.mac);
+                DeviceRecord record;
+                if (old == null) {
+                    record = new DeviceRecord(d.mac, name, now, DeviceRecord.NO_RANK, 0);
+                } else if (!old.name.equals(name) || now - old.lastSeen >= minInterval) {
+                    record = old.withName(name).withLastSeen(now);
+                } else {
+                    continue;
+                }
+                records.put(d.mac, record);
+                updated.add(record);
+            }
+            if (updated.isEmpty()) {
+                return;
+            }
+            appendAll(updated);
+            publishSnapshot();
+        }
+        notifyChanged();
+    }
+
+    /**
+     * Replaces the priority list. Devices not in the list lose their rank but stay known.
+     * The file is rewritten in one atomic replace.
+     */
+    public void setPriorityDevices(List<? extends BTDevice> devices) throws IOException {
+        synchronized (this) {
+            ensureLoaded();
+            LongIntMap ranks = new LongIntMap(devices.size());
+            for (BTDevice d : devices) {
+                if (MacAddress.isValid(d.mac)) {
+                    ranks.putIfAbsent(d.mac, ranks.size());
+                }
+            }
+            for (DeviceRecord r : sortedRecords()) {
+                if (r.isRanked() && !ranks.containsKey(r.mac)) {
+                    records.put(r.mac, r.withRank(DeviceRecord.NO_RANK));
+                }
+            }
+            for (BTDevice d : devices) {
+                int rank = ranks.get(d.mac, DeviceRecord.NO_RANK);
+                if (rank == DeviceRecord.NO_RANK) {
+                    continue;
+                }
+                DeviceRecord old = records.get(d.mac);
+                records.put(d.mac, old == null
+                        ? new DeviceRecord(d.mac, d.name, 0, rank, 0)
+                        : old.withRank(rank));
+            }
+            rewrite();
+            publishSnapshot();
+        }
+        notifyChanged();
+    }
+
+    @Override
+    public synchronized String toString() {
+        ensureLoaded();
+        return "DeviceRegistry{" + file + ", devices=" + records.size() + ", frames=" + frames + "}";
+    }
+}
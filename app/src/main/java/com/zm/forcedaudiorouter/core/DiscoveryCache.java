@@ -0,0 +1,148 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the result of the last device scan so it can be shown at once instead of scanning on
+ * every request. A result goes stale when it is older than the TTL or when something that could
+ * change it happens, such as a bond or a name change. Only stale results are refreshed, and at
+ * most one scan runs at a time.
+ */
+public final class DiscoveryCache {
+
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60_000;
+
+    public interface Source {
+        /**
+         * @param progress gets partial results while the scan runs
+         * @return completes with every device found
+         */
+        CompletableFuture<List<? extends BTDevice>> scan(Consumer<List<? extends BTDevice>> progress);
+    }
+
+    /** A scan result and when it was taken. */
+    public static final class Entry {
+        public final List<BTDevice> devices;
+        public final long scannedAt;
+        /** False while the scan that produced it is still running. */
+        public final boolean complete;
+
+        Entry(Collection<? extends BTDevice> devices, long scannedAt, boolean complete) {
+            this.devices = Collections.unmodifiableList(new ArrayList<>(devices));
+            this.scannedAt = scannedAt;
+            this.complete = complete;
+        }
+
+        public long ageMillis(long now) {
+            return now - scannedAt;
+        }
+    }
+
+    private final Source source;
+    private final LongSupplier clock;
+    private final long ttlMillis;
+    private final StateBus<Entry> updates = new StateBus<>();
+
+    private Entry entry;
+    // bumped by every invalidation, so a scan that overlapped one does not count as fresh
+    private int generation;
+    private boolean invalidated;
+    private CompletableFuture<Entry> refreshing;
+    private long scans;
+
+    public DiscoveryCache(Source source, LongSupplier clock, long ttlMillis) {
+        this.source = source;
+        this.clock = clock;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /** Every result, partial ones from a running scan included. */
+    public StateBus<Entry> getUpdates() {
+        return updates;
+    }
+
+    /** @return the last complete result, or null before the first scan finished */
+    public synchronized Entry get() {
+        return entry;
+    }
+
+    public synchronized boolean isStale() {
+        return entry == null || invalidated || entry.ageMillis(clock.getAsLong()) >= ttlMillis;
+    }
+
+    /** Marks the result stale; the next {@link #getOrRefresh()} scans again. */
+    public synchronized void invalidate() {
+        generation++;
+        invalidated = true;
+    }
+
+    /**
+     * @return the last complete result straight away, possibly null; a stale one is refreshed in
+     * the background and the new result is published on {@link #getUpdates()}
+     */
+    public Entry getOrRefresh() {
+        Entry current;
+        boolean stale;
+        synchronized (this) {
+            current = entry;
+            stale = isStale();
+        }
+        if (stale) {
+            refresh();
+        }
+        return current;
+    }
+
+    /** Scans now, or joins the scan already running. */
+    public CompletableFuture<Entry> refresh() {
+        CompletableFuture<Entry> result;
+        int startedAt;
+        synchronized (this) {
+            if (refreshing != null) {
+                return refreshing;
+            }
+            result = refreshing = new CompletableFuture<>();
+            startedAt = generation;
+            scans++;
+        }
+        source.scan(partial -> updates.publish(new Entry(partial, clock.getAsLong(), false)))
+                .whenComplete((devices, ex) -> {
+                    Entry done = null;
+                    synchronized (this) {
+                        refreshing = null;
+                        if (ex == null) {
+                            done = entry = new Entry(devices, clock.getAsLong(), true);
+                            if (generation == startedAt) {
+                                invalidated = false;
+                            }
+                        }
+                    }
+                    if (done != null) {
+                        updates.publish(done);
+                        result.complete(done);
+                    } else {
+                        result.completeExceptionally(ex);
+                    }
+                });
+        return result;
+    }
+
+    public synchronized long getScans() {
+        return scans;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (entry == null) {
+            return "empty scans=" + scans;
+        }
+        return entry.devices.size() + " devices, age=" + entry.ageMillis(clock.getAsLong()) + "ms"
+                + (isStale() ? " stale" : "") + " scans=" + scans;
+    }
+}
@@ -0,0 +1,130 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.io.PrintWriter;
+
+/**
+ * Stops the router from fighting whoever keeps moving audio away. Each device has a token bucket
+ * of switches, and after a switch the router waits out a hysteresis period before switching to
+ * the same device again. Switching back to a device shortly after the last switch to it counts
+ * as a flap; repeated flaps put the device on hold with an exponential backoff. Sustained
+ * contention therefore costs a bounded number of switches.
+ */
+public final class FlapGuard {
+
+    public static final long DEFAULT_HYSTERESIS_MILLIS = 2000;
+    public static final int DEFAULT_MAX_SWITCHES_PER_MINUTE = 6;
+
+    /** A switch back to the same device within this long of the previous one is a flap. */
+    public static final long FLAP_WINDOW_MILLIS = 10_000;
+    /** Flaps in a row that put the device on hold. */
+    public static final int FLAP_THRESHOLD = 3;
+    public static final long MIN_HOLD_MILLIS = 30_000;
+    public static final long MAX_HOLD_MILLIS = 5 * 60_000;
+
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private static final class DeviceState {
+        double tokens;
+        long refilledAt;
+        long lastSwitchAt = NEVER;
+        int flaps;
+        long holdMillis;
+        long holdUntil = NEVER;
+    }
+
+    private final RoutingMetrics metrics;
+    private final LongMap<DeviceState> devices = new LongMap<>();
+
+    private long hysteresisMillis = DEFAULT_HYSTERESIS_MILLIS;
+    private int capacity = DEFAULT_MAX_SWITCHES_PER_MINUTE;
+    private long refillMillis = 60_000 / DEFAULT_MAX_SWITCHES_PER_MINUTE;
+
+    public FlapGuard(RoutingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public synchronized void setLimits(long hysteresisMillis, int maxSwitchesPerMinute) {
+        this.hysteresisMillis = hysteresisMillis;
+        this.capacity = Math.max(1, maxSwitchesPerMinute);
+        this.refillMillis = 60_000 / capacity;
+    }
+
+    /** @return 0 if a switch to the device is allowed now, otherwise the time it will be */
+    public synchronized long blockedUntil(long mac, long now) {
+        DeviceState s = devices.get(mac);
+        if (s == null) {
+            return 0;
+        }
+        refill(s, now);
+        long until = 0;
+        if (s.holdUntil != NEVER && now < s.holdUntil) {
+            until = s.holdUntil;
+        }
+        if (s.lastSwitchAt != NEVER && now - s.lastSwitchAt < hysteresisMillis) {
+            until = Math.max(until, s.lastSwitchAt + hysteresisMillis);
+        }
+        if (s.tokens < 1) {
+            until = Math.max(until, now + (long) Math.ceil((1 - s.tokens) * refillMillis));
+        }
+        return until;
+    }
+
+    /** Records a switch to the device and checks whether it is flapping. */
+    public synchronized void onSwitched(long mac, long now) {
+        DeviceState s = devices.get(mac);
+        if (s == null) {
+            s = new DeviceState();
+            s.tokens = capacity;
+            s.refilledAt = now;
+            devices.put(mac, s);
+        }
+        refill(s, now);
+        s.tokens -= 1;
+        if (s.lastSwitchAt != NEVER && now - s.lastSwitchAt < FLAP_WINDOW_MILLIS) {
+            s.flaps++;
+            metrics.increment(RoutingMetrics.FLAPS_DETECTED);
+            if (s.flaps >= FLAP_THRESHOLD) {
+                s.holdMillis = s.holdMillis == 0 ? MIN_HOLD_MILLIS : Math.min(s.holdMillis * 2, MAX_HOLD_MILLIS);
+                s.holdUntil = now + s.holdMillis;
+                s.flaps = 0;
+            }
+        } else {
+            s.flaps = 0;
+            if (s.holdUntil != NEVER && now >= s.holdUntil + s.holdMillis) {
+                // calm for as long as the last hold, start over
+                s.holdMillis = 0;
+            }
+        }
+        s.lastSwitchAt = now;
+    }
+
+    /** @return true if the device is on hold because it kept flapping */
+    public synchronized boolean isHeld(long mac, long now) {
+        DeviceState s = devices.get(mac);
+        return s != null && s.holdUntil != NEVER && now < s.holdUntil;
+    }
+
+    private void refill(DeviceState s, long now) {
+        if (now > s.refilledAt) {
+            s.tokens = Math.min(capacity, s.tokens + (double) (now - s.refilledAt) / refillMillis);
+            s.refilledAt = now;
+        }
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix, long now) {
+        pw.print(prefix);
+        pw.println("flap guard: hysteresis=" + hysteresisMillis + "ms max_switches_per_minute=" + capacity);
+        devices.forEachKey(mac -> {
+            DeviceState s = devices.get(mac);
+            refill(s, now);
+            pw.print(prefix);
+            pw.print("  ");
+            pw.print(MacAddress.format(mac));
+            pw.printf(" tokens=%.1f flaps=%d", s.tokens, s.flaps);
+            if (s.holdUntil != NEVER && now < s.holdUntil) {
+                pw.print(" HELD for " + (s.holdUntil - now) + "ms");
+            }
+            pw.println();
+        });
+    }
+}
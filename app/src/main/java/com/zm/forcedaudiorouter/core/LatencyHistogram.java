@@ -0,0 +1,116 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with fixed millisecond buckets. Recording is a bucket search plus a couple
+ * of atomic adds, with no locks and no allocation.
+ */
+public final class LatencyHistogram {
+
+    /** Inclusive upper bounds of each bucket; the last bucket holds everything above. */
+    private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        int i = 0;
+        while (i < BOUNDS.length && millis > BOUNDS[i]) {
+            i++;
+        }
+        buckets.incrementAndGet(i);
+        count.incrementAndGet();
+        sum.addAndGet(millis);
+        long m;
+        while (millis > (m = max.get()) && !max.compareAndSet(m, millis)) {
+            // retry
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /** @return the upper bound of the bucket holding the given percentile, or max for the last bucket */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return BOUNDS[i];
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix);
+        pw.print(name);
+        pw.print(": count=");
+        pw.print(count.get());
+        pw.print(" mean=");
+        pw.print(getMean());
+        pw.print("ms p50<=");
+        pw.print(getPercentile(50));
+        pw.print("ms p90<=");
+        pw.print(getPercentile(90));
+        pw.print("ms p99<=");
+        pw.print(getPercentile(99));
+        pw.print("ms max=");
+        pw.print(max.get());
+        pw.println("ms");
+        pw.print(prefix);
+        pw.print("  buckets:");
+        for (int i = 0; i < buckets.length(); i++) {
+            long c = buckets.get(i);
+            if (c == 0) {
+                continue;
+            }
+            pw.print(' ');
+            pw.print(i < BOUNDS.length ? "<=" + BOUNDS[i] : ">" + BOUNDS[BOUNDS.length - 1]);
+            pw.print(':');
+            pw.print(c);
+        }
+        pw.println();
+    }
+}
@@ -0,0 +1,156 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to int values, so lookups by packed MAC neither box
+ * nor allocate. {@link Long#MIN_VALUE} is reserved and cannot be used as a key.
+ */
+public final class LongIntMap {
+
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    public LongIntMap() {
+        this(8);
+    }
+
+    public LongIntMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 4;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    public int get(long key, int defaultValue) {
+        int i = slot(key, mask);
+        long k;
+        while ((k = keys[i]) != FREE) {
+            if (k == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        int i = slot(key, mask);
+        long k;
+        while ((k = keys[i]) != FREE) {
+            if (k == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public void put(long key, int value) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("reserved key");
+        }
+        int i = slot(key, mask);
+        long k;
+        while ((k = keys[i]) != FREE) {
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /** Puts the value only if the key is absent. @return true if it was inserted */
+    public boolean putIfAbsent(long key, int value) {
+        if (containsKey(key)) {
+            return false;
+        }
+        put(key, value);
+        return true;
+    }
+
+    public boolean remove(long key) {
+        int i = slot(key, mask);
+        long k;
+        while ((k = keys[i]) != FREE) {
+            if (k == key) {
+                shiftBack(i);
+                size--;
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    // backward shift deletion keeps probe chains intact without tombstones
+    private void shiftBack(int gap) {
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            long k = keys[i];
+            if (k == FREE) {
+                break;
+            }
+            int home = slot(k, mask);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = k;
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = FREE;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+}
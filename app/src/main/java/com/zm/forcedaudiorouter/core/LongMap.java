@@ -0,0 +1,167 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Open addressing hash map from long keys to objects, used for tables keyed by packed MAC.
+ * {@link Long#MIN_VALUE} is reserved and cannot be used as a key.
+ */
+public final class LongMap<V> {
+
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public LongMap() {
+        this(8);
+    }
+
+    public LongMap(int expectedSize) {
+        int capacity = 4;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = LongIntMap.slot(key, mask);
+        long k;
+        while ((k = keys[i]) != FREE) {
+            if (k == key) {
+                return (V) values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        int i = LongIntMap.slot(key, mask);
+        long k;
+        while ((k = keys[i]) != FREE) {
+            if (k == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /** @return the previous value, or null */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("reserved key");
+        }
+        int i = LongIntMap.slot(key, mask);
+        long k;
+        while ((k = keys[i]) != FREE) {
+            if (k == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /** @return the removed value, or null */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = LongIntMap.slot(key, mask);
+        long k;
+        while ((k = keys[i]) != FREE) {
+            if (k == key) {
+                V old = (V) values[i];
+                shiftBack(i);
+                size--;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    private void shiftBack(int gap) {
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            long k = keys[i];
+            if (k == FREE) {
+                break;
+            }
+            int home = LongIntMap.slot(k, mask);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = k;
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = FREE;
+        values[gap] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                put(oldKeys[i], (V) oldValues[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    public void forEachKey(LongConsumer action) {
+        for (long k : keys) {
+            if (k != FREE) {
+                action.accept(k);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                action.accept((V) values[i]);
+            }
+        }
+    }
+}
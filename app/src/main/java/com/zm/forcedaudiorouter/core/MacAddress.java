@@ -0,0 +1,72 @@
+package com.zm.forcedaudiorouter.core;
+
+/**
+ * Bluetooth MAC addresses packed into the low 48 bits of a long. Parsing and formatting work on
+ * characters directly so that neither allocates on the routing path (formatting allocates the
+ * result string only).
+ */
+public final class MacAddress {
+
+    /** Returned by {@link #parse} for anything that is not a well formed address. */
+    public static final long INVALID = -1L;
+
+    private static final int LENGTH = 17;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private MacAddress() {
+    }
+
+    public static long parse(CharSequence s) {
+        return s == null ? INVALID : parse(s, 0, s.length());
+    }
+
+    /** Parses "XX:XX:XX:XX:XX:XX" (either case) in s[start, end). */
+    public static long parse(CharSequence s, int start, int end) {
+        if (end - start != LENGTH) {
+            return INVALID;
+        }
+        long mac = 0;
+        for (int i = 0; i < 6; i++) {
+            int p = start + i * 3;
+            int hi = hexValue(s.charAt(p));
+            int lo = hexValue(s.charAt(p + 1));
+            if (hi < 0 || lo < 0 || (i < 5 && s.charAt(p + 2) != ':')) {
+                return INVALID;
+            }
+            mac = (mac << 8) | (hi << 4) | lo;
+        }
+        return mac;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    public static boolean isValid(long mac) {
+        return (mac & 0xFFFF000000000000L) == 0;
+    }
+
+    public static String format(long mac) {
+        if (!isValid(mac)) {
+            return "N/A";
+        }
+        char[] c = new char[LENGTH];
+        for (int i = 0; i < 6; i++) {
+            int b = (int) (mac >>> (40 - i * 8)) & 0xFF;
+            int p = i * 3;
+            c[p] = HEX[b >>> 4];
+            c[p + 1] = HEX[b & 0xF];
+            if (i < 5) {
+                c[p + 2] = ':';
+            }
+        }
+        return new String(c);
+    }
+}
@@ -0,0 +1,62 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.util.Arrays;
+
+/**
+ * An ordered list of preferred devices, compiled into a rank index keyed by packed MAC when the
+ * configuration changes so that ranking a device during routing is a single lookup.
+ */
+public final class PriorityPolicy {
+
+    /** Rank of a device that is not in the list. */
+    public static final int UNRANKED = Integer.MAX_VALUE;
+
+    public static final PriorityPolicy EMPTY = new PriorityPolicy(new long[0]);
+
+    private final long[] order;
+    private final LongIntMap ranks;
+
+    private PriorityPolicy(long[] order) {
+        this.order = order;
+        this.ranks = new LongIntMap(order.length);
+        for (int i = 0; i < order.length; i++) {
+            ranks.put(order[i], i);
+        }
+    }
+
+    /**
+     * Compiles the MACs in priority order, highest first. Duplicates keep their first rank and
+     * invalid addresses are dropped.
+     */
+    public static PriorityPolicy compile(long[] macs) {
+        LongIntMap seen = new LongIntMap(macs.length);
+        long[] order = new long[macs.length];
+        int n = 0;
+        for (long mac : macs) {
+            if (MacAddress.isValid(mac) && seen.putIfAbsent(mac, n)) {
+                order[n++] = mac;
+            }
+        }
+        if (n == 0) {
+            return EMPTY;
+        }
+        return new PriorityPolicy(n == order.length ? order : Arrays.copyOf(order, n));
+    }
+
+    public int rankOf(long mac) {
+        return ranks.get(mac, UNRANKED);
+    }
+
+    /** @return the MAC at the given rank */
+    public long macAt(int rank) {
+        return order[rank];
+    }
+
+    public int size() {
+        return order.length;
+    }
+
+    public boolean isEmpty() {
+        return order.length == 0;
+    }
+}
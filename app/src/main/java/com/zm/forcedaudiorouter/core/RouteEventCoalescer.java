@@ -0,0 +1,130 @@
+package com.zm.forcedaudiorouter.core;
+
+/**
+ * Collapses bursts of route events into a single evaluation. An evaluation runs once no event
+ * has arrived for the quiet window, or once the max delay has passed since the first event of
+ * the burst, whichever comes first.
+ */
+public final class RouteEventCoalescer {
+
+    public static final long DEFAULT_QUIET_WINDOW_MILLIS = 150;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 500;
+
+    public interface Scheduler {
+        long now();
+
+        void schedule(Runnable task, long delayMillis);
+
+        void cancel(Runnable task);
+    }
+
+    public interface Evaluation {
+        /**
+         * @param firstEventAt scheduler time of the first event in the burst
+         * @param events number of events collapsed into this evaluation
+         */
+        void evaluate(long firstEventAt, int events);
+    }
+
+    private final Scheduler scheduler;
+    private final Evaluation evaluation;
+    private final Runnable fire = this::fire;
+
+    private long quietWindowMillis = DEFAULT_QUIET_WINDOW_MILLIS;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+
+    private int pendingEvents;
+    private long firstEventAt;
+    private long lastEventAt;
+
+    private long eventsReceived;
+    private long eventsCoalesced;
+    private long evaluations;
+
+    public RouteEventCoalescer(Scheduler scheduler, Evaluation evaluation) {
+        this.scheduler = scheduler;
+        this.evaluation = evaluation;
+    }
+
+    public synchronized void setWindow(long quietWindowMillis, long maxDelayMillis) {
+        this.quietWindowMillis = Math.max(0, quietWindowMillis);
+        this.maxDelayMillis = Math.max(this.quietWindowMillis, maxDelayMillis);
+    }
+
+    public synchronized long getQuietWindowMillis() {
+        return quietWindowMillis;
+    }
+
+    public synchronized long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public synchronized void onEvent() {
+        long now = scheduler.now();
+        eventsReceived++;
+        lastEventAt = now;
+        if (pendingEvents++ == 0) {
+            firstEventAt = now;
+            scheduler.schedule(fire, quietWindowMillis);
+        } else {
+            // the scheduled task re-arms itself if the burst is still going when it runs
+            eventsCoalesced++;
+        }
+    }
+
+    /** Runs any pending evaluation right away. */
+    public void flush() {
+        int events;
+        long first;
+        synchronized (this) {
+            if (pendingEvents == 0) {
+                return;
+            }
+            scheduler.cancel(fire);
+            events = pendingEvents;
+            first = firstEventAt;
+            pendingEvents = 0;
+            evaluations++;
+        }
+        evaluation.evaluate(first, events);
+    }
+
+    /** Drops any pending evaluation. */
+    public synchronized void cancel() {
+        scheduler.cancel(fire);
+        pendingEvents = 0;
+    }
+
+    private void fire() {
+        int events;
+        long first;
+        synchronized (this) {
+            if (pendingEvents == 0) {
+                return;
+            }
+            long now = scheduler.now();
+            long due = Math.min(lastEventAt + quietWindowMillis, firstEventAt + maxDelayMillis);
+            if (now < due) {
+                scheduler.schedule(fire, due - now);
+                return;
+            }
+            events = pendingEvents;
+            first = firstEventAt;
+            pendingEvents = 0;
+            evaluations++;
+        }
+        evaluation.evaluate(first, events);
+    }
+
+    public synchronized long getEventsReceived() {
+        return eventsReceived;
+    }
+
+    public synchronized long getEventsCoalesced() {
+        return eventsCoalesced;
+    }
+
+    public synchronized long getEvaluations() {
+        return evaluations;
+    }
+}
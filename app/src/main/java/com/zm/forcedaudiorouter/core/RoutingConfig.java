@@ -0,0 +1,90 @@
+package com.zm.forcedaudiorouter.core;
+
+/**
+ * The user's routing settings. Instances are immutable and replaced as a whole, so a reader
+ * holding one never sees a mix of old and new values.
+ */
+public final class RoutingConfig {
+
+    public static final RoutingConfig DEFAULT = new RoutingConfig(false,
+            RouteEventCoalescer.DEFAULT_QUIET_WINDOW_MILLIS, RouteEventCoalescer.DEFAULT_MAX_DELAY_MILLIS,
+            FlapGuard.DEFAULT_HYSTERESIS_MILLIS, FlapGuard.DEFAULT_MAX_SWITCHES_PER_MINUTE, "", true);
+
+    public final boolean enabled;
+    public final long quietWindowMillis;
+    public final long maxDelayMillis;
+    /** How long after switching to a device the router waits before switching to it again. */
+    public final long hysteresisMillis;
+    public final int maxSwitchesPerMinute;
+    /** Source of the {@link RoutingRules}, never null. */
+    public final String rules;
+    /**
+     * Evaluate when playback starts or the output devices change, and take route changes only
+     * while something plays. Off means every route change is evaluated.
+     */
+    public final boolean playbackTrigger;
+
+    public RoutingConfig(boolean enabled, long quietWindowMillis, long maxDelayMillis,
+                         long hysteresisMillis, int maxSwitchesPerMinute, String rules, boolean playbackTrigger) {
+        this.enabled = enabled;
+        this.quietWindowMillis = quietWindowMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.hysteresisMillis = hysteresisMillis;
+        this.maxSwitchesPerMinute = maxSwitchesPerMinute;
+        this.rules = rules == null ? "" : rules;
+        this.playbackTrigger = playbackTrigger;
+    }
+
+    public RoutingConfig withEnabled(boolean enabled) {
+        return new RoutingConfig(enabled, quietWindowMillis, maxDelayMillis, hysteresisMillis, maxSwitchesPerMinute, rules,
+                playbackTrigger);
+    }
+
+    public RoutingConfig withCoalescingWindow(long quietWindowMillis, long maxDelayMillis) {
+        return new RoutingConfig(enabled, quietWindowMillis, maxDelayMillis, hysteresisMillis, maxSwitchesPerMinute, rules,
+                playbackTrigger);
+    }
+
+    public RoutingConfig withFlapLimits(long hysteresisMillis, int maxSwitchesPerMinute) {
+        return new RoutingConfig(enabled, quietWindowMillis, maxDelayMillis, hysteresisMillis, maxSwitchesPerMinute, rules,
+                playbackTrigger);
+    }
+
+    public RoutingConfig withRules(String rules) {
+        return new RoutingConfig(enabled, quietWindowMillis, maxDelayMillis, hysteresisMillis, maxSwitchesPerMinute, rules,
+                playbackTrigger);
+    }
+
+    public RoutingConfig withPlaybackTrigger(boolean playbackTrigger) {
+        return new RoutingConfig(enabled, quietWindowMillis, maxDelayMillis, hysteresisMillis, maxSwitchesPerMinute, rules,
+                playbackTrigger);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RoutingConfig that = (RoutingConfig) o;
+        return enabled == that.enabled && quietWindowMillis == that.quietWindowMillis
+                && maxDelayMillis == that.maxDelayMillis && hysteresisMillis == that.hysteresisMillis
+                && maxSwitchesPerMinute == that.maxSwitchesPerMinute && rules.equals(that.rules)
+                && playbackTrigger == that.playbackTrigger;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = (quietWindowMillis * 31 + maxDelayMillis) * 31 + hysteresisMillis;
+        int result = Boolean.hashCode(enabled) * 31 + Long.hashCode(h);
+        result = result * 31 + maxSwitchesPerMinute;
+        result = result * 31 + rules.hashCode();
+        return result * 31 + Boolean.hashCode(playbackTrigger);
+    }
+
+    @Override
+    public String toString() {
+        return "enabled=" + enabled + " quiet=" + quietWindowMillis + "ms max_delay=" + maxDelayMillis
+                + "ms hysteresis=" + hysteresisMillis + "ms max_switches_per_minute=" + maxSwitchesPerMinute
+                + " rules=" + (rules.isEmpty() ? "none" : rules.split("\n").length + " lines")
+                + " trigger=" + (playbackTrigger ? "playback" : "route");
+    }
+}
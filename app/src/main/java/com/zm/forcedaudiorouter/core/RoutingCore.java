@@ -0,0 +1,195 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The routing decision, free of any Android types so it can run against the real A2DP proxy or
+ * against a simulated stack.
+ */
+public final class RoutingCore {
+
+    /** What the stack looks like to the router during one evaluation. */
+    public interface AudioStack {
+        int connectedCount();
+
+        long connectedMac(int index);
+
+        /**
+         * Asks the stack whether the connected device at index is the active one. Only used
+         * while the active device has not been reported.
+         */
+        boolean isActive(int index);
+
+        /** @return true if a switch to the connected device at index is already in flight */
+        boolean isSwitching(int index);
+
+        /** @return true if the stack accepted the switch */
+        boolean setActive(int index);
+    }
+
+    public static final int NO_CANDIDATE = 0;
+    public static final int ALREADY_ACTIVE = 1;
+    public static final int SWITCHED = 2;
+    public static final int SWITCH_FAILED = 3;
+    /** The flap guard held the switch back; see {@link #getRetryAt()}. */
+    public static final int SUPPRESSED = 4;
+    /** A switch to the best device is already in flight. */
+    public static final int SWITCH_PENDING = 5;
+
+    private final RoutingMetrics metrics;
+    private final LongSupplier clock;
+    private final LongSupplier localTime;
+
+    private final ActiveDeviceTracker activeDevice = new ActiveDeviceTracker();
+    private final FlapGuard flapGuard;
+
+    private volatile PriorityPolicy policy = PriorityPolicy.EMPTY;
+    private volatile RoutingRules rules = RoutingRules.EMPTY;
+
+    // the last switch held back and when it may be tried again
+    private long suppressedMac = MacAddress.INVALID;
+    private long retryAt;
+
+    public RoutingCore(RoutingMetrics metrics) {
+        this(metrics, () -> System.nanoTime() / 1_000_000);
+    }
+
+    /** @param clock milliseconds, for the flap guard */
+    public RoutingCore(RoutingMetrics metrics, LongSupplier clock) {
+        this(metrics, clock, RoutingRules.localClock());
+    }
+
+    /** @param localTime local wall clock milliseconds, for the hours and days of the rules */
+    public RoutingCore(RoutingMetrics metrics, LongSupplier clock, LongSupplier localTime) {
+        this.metrics = metrics;
+        this.clock = clock;
+        this.localTime = localTime;
+        this.flapGuard = new FlapGuard(metrics);
+    }
+
+    public RoutingMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ActiveDeviceTracker getActiveDevice() {
+        return activeDevice;
+    }
+
+    public FlapGuard getFlapGuard() {
+        return flapGuard;
+    }
+
+    /** @return the device of the last switch the flap guard held back */
+    public long getSuppressedDevice() {
+        return suppressedMac;
+    }
+
+    /** @return the time the last switch held back becomes allowed */
+    public long getRetryAt() {
+        return retryAt;
+    }
+
+    public PriorityPolicy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(PriorityPolicy policy) {
+        this.policy = policy;
+    }
+
+    public RoutingRules getRules() {
+        return rules;
+    }
+
+    public void setRules(RoutingRules rules) {
+        this.rules = rules;
+    }
+
+    /** @return false if nothing could ever pick a device */
+    public boolean hasPolicy() {
+        return !policy.isEmpty() || !rules.isEmpty();
+    }
+
+    /**
+     * Picks the device the first applying prefer rule names, or else the best ranked connected
+     * device that no rule avoids, and switches to it if needed.
+     */
+    public int evaluate(AudioStack stack) {
+        PriorityPolicy policy = this.policy;
+        RoutingRules rules = this.rules;
+        metrics.increment(RoutingMetrics.EVALUATIONS);
+        int count = stack.connectedCount();
+
+        long avoided = 0;
+        long preferred = MacAddress.INVALID;
+        if (!rules.isEmpty()) {
+            long present = 0;
+            for (int i = 0; i < count; i++) {
+                present |= rules.bitOf(stack.connectedMac(i));
+            }
+            long local = localTime.getAsLong();
+            int hour = RoutingRules.hourOf(local);
+            int day = RoutingRules.dayOf(local);
+            avoided = rules.avoided(present, hour, day);
+            preferred = rules.preferred(present, avoided, hour, day);
+        }
+
+        // single pass: keep the best ranked connected device
+        int best = -1;
+        int bestRank = PriorityPolicy.UNRANKED;
+        for (int i = 0; i < count; i++) {
+            long mac = stack.connectedMac(i);
+            if (mac == preferred) {
+                best = i;
+                break;
+            }
+            if (avoided != 0 && (avoided & rules.bitOf(mac)) != 0) {
+                continue;
+            }
+            int rank = policy.rankOf(mac);
+            if (rank < bestRank) {
+                best = i;
+                bestRank = rank;
+            }
+        }
+
+        if (best < 0) {
+            return NO_CANDIDATE;
+        }
+        // only set if not currently active device.
+        long bestMac = stack.connectedMac(best);
+        long active = activeDevice.getActive();
+        boolean alreadyActive;
+        if (active != ActiveDeviceTracker.UNKNOWN) {
+            alreadyActive = active == bestMac;
+        } else {
+            metrics.increment(RoutingMetrics.ACTIVE_STATE_QUERIES);
+            alreadyActive = stack.isActive(best);
+        }
+        if (alreadyActive) {
+            metrics.increment(RoutingMetrics.SWITCHES_SKIPPED_ACTIVE);
+            return ALREADY_ACTIVE;
+        }
+        if (stack.isSwitching(best)) {
+            // another event of the same handover: issuing again would spend a flap guard token
+            metrics.increment(RoutingMetrics.SWITCHES_SKIPPED_ACTIVE);
+            return SWITCH_PENDING;
+        }
+        long now = clock.getAsLong();
+        long blockedUntil = flapGuard.blockedUntil(bestMac, now);
+        if (blockedUntil != 0) {
+            metrics.increment(RoutingMetrics.SWITCHES_SUPPRESSED);
+            suppressedMac = bestMac;
+            retryAt = blockedUntil;
+            return SUPPRESSED;
+        }
+        metrics.increment(RoutingMetrics.SWITCHES_ISSUED);
+        if (!stack.setActive(best)) {
+            return SWITCH_FAILED;
+        }
+        flapGuard.onSwitched(bestMac, now);
+        // assume it took until the stack says otherwise, so the echo of this switch is a no-op
+        activeDevice.onActiveDeviceChanged(bestMac);
+        return SWITCHED;
+    }
+}
@@ -0,0 +1,188 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * What the router did recently, kept in a fixed ring of preallocated slots so recording costs no
+ * lock and no allocation. Each record is a timestamp, a packed MAC, an event type and a value.
+ * Once the ring is full the oldest records are overwritten. The journal can be printed, or saved
+ * in a binary form that {@link #decode} turns back into text off the device.
+ */
+public final class RoutingJournal {
+
+    public static final int DEFAULT_CAPACITY = 2048;
+
+    public static final int ROUTE_EVENT = 1;
+    public static final int AUDIO_TRIGGER = 2;
+    /** Value is the {@link RoutingCore} outcome. */
+    public static final int EVALUATION = 3;
+    public static final int SWITCH_ISSUED = 4;
+    public static final int SWITCH_CONFIRMED = 5;
+    /** Value is the {@link SwitchTracker.Result} ordinal. */
+    public static final int SWITCH_FAILED = 6;
+    public static final int SWITCH_SUPPRESSED = 7;
+    public static final int ACTIVE_CHANGED = 8;
+    public static final int CONNECTED = 9;
+    public static final int DISCONNECTED = 10;
+    /** Value is 1 when routing started, 0 when it went idle. */
+    public static final int ROUTING_STATE = 11;
+
+    private static final String[] TYPE_NAMES = {
+            "?",
+            "route_event",
+            "audio_trigger",
+            "evaluation",
+            "switch_issued",
+            "switch_confirmed",
+            "switch_failed",
+            "switch_suppressed",
+            "active_changed",
+            "connected",
+            "disconnected",
+            "routing_state"
+    };
+
+    private static final String[] OUTCOME_NAMES = {"no_candidate", "already_active", "switched", "switch_failed", "suppressed", "switch_pending"};
+
+    // slot layout: sequence + 1 once complete, time, mac, type << 32 | value
+    private static final int SLOT_LONGS = 4;
+    private static final int FILE_MAGIC = 0x46524a31; // "FRJ1"
+
+    private final LongSupplier clock;
+    private final int mask;
+    private final AtomicLongArray slots;
+    private final AtomicLong cursor = new AtomicLong();
+
+    /** @param capacity records kept, rounded up to a power of two */
+    public RoutingJournal(int capacity, LongSupplier clock) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.clock = clock;
+        this.mask = size - 1;
+        this.slots = new AtomicLongArray(size * SLOT_LONGS);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** Records one event. Safe to call from any thread. */
+    public void record(int type, long mac, int value) {
+        long seq = cursor.getAndIncrement();
+        int base = (int) (seq & mask) * SLOT_LONGS;
+        // readers skip the slot while it is being rewritten
+        slots.set(base, 0);
+        slots.lazySet(base + 1, clock.getAsLong());
+        slots.lazySet(base + 2, mac);
+        slots.lazySet(base + 3, (long) type << 32 | (value & 0xffffffffL));
+        slots.set(base, seq + 1);
+    }
+
+    public void record(int type, long mac) {
+        record(type, mac, 0);
+    }
+
+    /** @return how many records were ever written, overwritten ones included */
+    public long getRecorded() {
+        return cursor.get();
+    }
+
+    private interface RecordSink {
+        void accept(long time, long mac, int type, int value) throws IOException;
+    }
+
+    // oldest first; a record that is overwritten while it is read is left out
+    private int forEach(RecordSink sink) throws IOException {
+        long end = cursor.get();
+        long start = Math.max(0, end - capacity());
+        int read = 0;
+        for (long seq = start; seq < end; seq++) {
+            int base = (int) (seq & mask) * SLOT_LONGS;
+            if (slots.get(base) != seq + 1) {
+                continue;
+            }
+            long time = slots.get(base + 1);
+            long mac = slots.get(base + 2);
+            long word = slots.get(base + 3);
+            if (slots.get(base) != seq + 1) {
+                continue;
+            }
+            sink.accept(time, mac, (int) (word >>> 32), (int) word);
+            read++;
+        }
+        return read;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix);
+        pw.println("journal: " + getRecorded() + " recorded, last " + capacity() + " kept");
+        try {
+            forEach((time, mac, type, value) -> printRecord(pw, prefix + "  ", time, mac, type, value));
+        } catch (IOException e) {
+            // a PrintWriter does not throw
+            throw new AssertionError(e);
+        }
+    }
+
+    /** Writes the records in the binary form {@link #decode} reads. */
+    public int writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(FILE_MAGIC);
+        int written = forEach((time, mac, type, value) -> {
+            data.writeLong(time);
+            data.writeLong(mac);
+            data.writeInt(type);
+            data.writeInt(value);
+        });
+        data.flush();
+        return written;
+    }
+
+    /** Prints a saved journal. */
+    public static void decode(InputStream in, PrintWriter pw) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != FILE_MAGIC) {
+            throw new IOException("not a routing journal");
+        }
+        while (true) {
+            long time;
+            try {
+                time = data.readLong();
+            } catch (EOFException e) {
+                break;
+            }
+            printRecord(pw, "", time, data.readLong(), data.readInt(), data.readInt());
+        }
+        pw.flush();
+    }
+
+    private static void printRecord(PrintWriter pw, String prefix, long time, long mac, int type, int value) {
+        pw.print(prefix);
+        pw.print(time);
+        pw.print(' ');
+        pw.print(type > 0 && type < TYPE_NAMES.length ? TYPE_NAMES[type] : "type" + type);
+        if (mac != MacAddress.INVALID) {
+            pw.print(' ');
+            pw.print(MacAddress.format(mac));
+        }
+        if (type == EVALUATION && value >= 0 && value < OUTCOME_NAMES.length) {
+            pw.print(' ');
+            pw.print(OUTCOME_NAMES[value]);
+        } else if (type == SWITCH_FAILED && value >= 0 && value < SwitchTracker.Result.values().length) {
+            pw.print(' ');
+            pw.print(SwitchTracker.Result.values()[value]);
+        } else if (value != 0 || type == ROUTING_STATE) {
+            pw.print(' ');
+            pw.print(value);
+        }
+        pw.println();
+    }
+}
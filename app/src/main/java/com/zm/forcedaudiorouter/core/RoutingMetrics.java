@@ -0,0 +1,87 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the routing path. Everything is recorded with atomic
+ * operations only, so it is safe to call from any thread on the hot path.
+ */
+public final class RoutingMetrics {
+
+    public static final int EVENTS_RECEIVED = 0;
+    public static final int EVENTS_COALESCED = 1;
+    public static final int EVALUATIONS = 2;
+    public static final int SWITCHES_ISSUED = 3;
+    public static final int SWITCHES_SKIPPED_ACTIVE = 4;
+    public static final int REFLECTION_FAILURES = 5;
+    public static final int ACTIVE_STATE_QUERIES = 6;
+    public static final int EVALUATIONS_SUPERSEDED = 7;
+    public static final int SWITCH_RETRIES = 8;
+    public static final int SWITCHES_CONFIRMED = 9;
+    public static final int SWITCHES_FAILED = 10;
+    public static final int SWITCHES_SUPPRESSED = 11;
+    public static final int FLAPS_DETECTED = 12;
+    /** Evaluations asked for by playback starting or the output devices changing. */
+    public static final int AUDIO_TRIGGERS = 13;
+    /** Route changes dropped because nothing was playing. */
+    public static final int EVALUATIONS_AVOIDED = 14;
+    /** Switches replaced by a switch to another device before they finished. */
+    public static final int SWITCHES_SUPERSEDED = 15;
+
+    private static final String[] COUNTER_NAMES = {
+            "events_received",
+            "events_coalesced",
+            "evaluations",
+            "switches_issued",
+            "switches_skipped_active",
+            "reflection_failures",
+            "active_state_queries",
+            "evaluations_superseded",
+            "switch_retries",
+            "switches_confirmed",
+            "switches_failed",
+            "switches_suppressed",
+            "flaps_detected",
+            "audio_triggers",
+            "evaluations_avoided",
+            "switches_superseded"
+    };
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTER_NAMES.length);
+
+    public final LatencyHistogram eventToSwitch = new LatencyHistogram("event_to_switch");
+    /** From the first attempt of a switch until the stack confirms it. */
+    public final LatencyHistogram switchToConfirmed = new LatencyHistogram("switch_to_confirmed");
+
+    public void increment(int counter) {
+        counters.incrementAndGet(counter);
+    }
+
+    public void add(int counter, long delta) {
+        counters.addAndGet(counter, delta);
+    }
+
+    public long get(int counter) {
+        return counters.get(counter);
+    }
+
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        eventToSwitch.reset();
+        switchToConfirmed.reset();
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            pw.print(prefix);
+            pw.print(COUNTER_NAMES[i]);
+            pw.print('=');
+            pw.println(counters.get(i));
+        }
+        eventToSwitch.dump(pw, prefix);
+        switchToConfirmed.dump(pw, prefix);
+    }
+}
@@ -0,0 +1,304 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.function.LongSupplier;
+
+/**
+ * Conditional routing rules, compiled into a flat decision table when the configuration changes
+ * so that evaluating them during routing allocates nothing. One rule per line:
+ *
+ * <pre>
+ * prefer AA:BB:CC:DD:EE:FF when connected 11:22:33:44:55:66 and hours 9-17 and days mon-fri
+ * avoid 11:22:33:44:55:66 when connected 22:33:44:55:66:77
+ * prefer AA:BB:CC:DD:EE:FF
+ * </pre>
+ *
+ * A rule applies when all of its conditions hold: {@code connected MAC}, {@code not connected MAC},
+ * {@code hours FROM-TO} (local time, end exclusive, may wrap past midnight) and {@code days}
+ * with a comma separated list of days or day ranges. An avoided device is never switched to. The
+ * first applying prefer rule whose device is connected and not avoided picks the device;
+ * otherwise the priority list decides. Blank lines and lines starting with {@code #} are ignored.
+ */
+public final class RoutingRules {
+
+    public static final RoutingRules EMPTY = new RoutingRules("", new LongIntMap(), 0,
+            new boolean[0], new long[0], new long[0], new long[0], new int[0], new int[0]);
+
+    private static final int ALL_HOURS = (1 << 24) - 1;
+    private static final int ALL_DAYS = (1 << 7) - 1;
+    private static final String[] DAYS = {"mon", "tue", "wed", "thu", "fri", "sat", "sun"};
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+    private final String source;
+    // every device a rule mentions gets one bit of the presence mask
+    private final LongIntMap bits;
+    private final int deviceCount;
+
+    // one entry per rule
+    private final boolean[] avoid;
+    private final long[] target;
+    private final long[] required;
+    private final long[] forbidden;
+    private final int[] hours;
+    private final int[] days;
+
+    private RoutingRules(String source, LongIntMap bits, int deviceCount, boolean[] avoid, long[] target,
+                         long[] required, long[] forbidden, int[] hours, int[] days) {
+        this.source = source;
+        this.bits = bits;
+        this.deviceCount = deviceCount;
+        this.avoid = avoid;
+        this.target = target;
+        this.required = required;
+        this.forbidden = forbidden;
+        this.hours = hours;
+        this.days = days;
+    }
+
+    /**
+     * @throws IllegalArgumentException naming the line that does not parse, or if the rules
+     * mention more than 64 devices
+     */
+    public static RoutingRules compile(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return EMPTY;
+        }
+        LongIntMap bits = new LongIntMap();
+        List<long[]> rows = new ArrayList<>();
+        String[] lines = text.split("\n");
+        for (int n = 0; n < lines.length; n++) {
+            String line = lines[n].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                rows.add(parseRule(line.toLowerCase(Locale.ROOT).split("\\s+"), bits));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("line " + (n + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        int size = rows.size();
+        boolean[] avoid = new boolean[size];
+        long[] target = new long[size];
+        long[] required = new long[size];
+        long[] forbidden = new long[size];
+        int[] hours = new int[size];
+        int[] days = new int[size];
+        for (int i = 0; i < size; i++) {
+            long[] row = rows.get(i);
+            avoid[i] = row[0] != 0;
+            target[i] = row[1];
+            required[i] = row[2];
+            forbidden[i] = row[3];
+            hours[i] = (int) row[4];
+            days[i] = (int) row[5];
+        }
+        return new RoutingRules(text, bits, bits.size(), avoid, target, required, forbidden, hours, days);
+    }
+
+    // {avoid, target, required, forbidden, hours, days}
+    private static long[] parseRule(String[] t, LongIntMap bits) {
+        long[] row = {0, 0, 0, 0, ALL_HOURS, ALL_DAYS};
+        if (t[0].equals("avoid")) {
+            row[0] = 1;
+        } else if (!t[0].equals("prefer")) {
+            throw new IllegalArgumentException("expected prefer or avoid, got " + t[0]);
+        }
+        row[1] = device(t, 1, bits);
+        int i = 2;
+        if (i == t.length) {
+            return row;
+        }
+        expect(t, i++, "when");
+        while (true) {
+            String word = token(t, i++);
+            switch (word) {
+                case "connected":
+                    row[2] |= bitFor(device(t, i++, bits), bits);
+                    break;
+                case "not":
+                    expect(t, i++, "connected");
+                    row[3] |= bitFor(device(t, i++, bits), bits);
+                    break;
+                case "hours":
+                    row[4] &= parseHours(token(t, i++));
+                    break;
+                case "days":
+                    row[5] &= parseDays(token(t, i++));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown condition " + word);
+            }
+            if (i == t.length) {
+                return row;
+            }
+            expect(t, i++, "and");
+        }
+    }
+
+    private static String token(String[] t, int i) {
+        if (i >= t.length) {
+            throw new IllegalArgumentException("rule ends too early");
+        }
+        return t[i];
+    }
+
+    private static void expect(String[] t, int i, String word) {
+        if (!token(t, i).equals(word)) {
+            throw new IllegalArgumentException("expected " + word + ", got " + t[i]);
+        }
+    }
+
+    private static long device(String[] t, int i, LongIntMap bits) {
+        long mac = MacAddress.parse(token(t, i));
+        if (!MacAddress.isValid(mac)) {
+            throw new IllegalArgumentException("bad address " + t[i]);
+        }
+        if (!bits.containsKey(mac)) {
+            if (bits.size() == Long.SIZE) {
+                throw new IllegalArgumentException("more than " + Long.SIZE + " devices");
+            }
+            bits.put(mac, bits.size());
+        }
+        return mac;
+    }
+
+    private static long bitFor(long mac, LongIntMap bits) {
+        return 1L << bits.get(mac, 0);
+    }
+
+    private static int parseHours(String range) {
+        int dash = range.indexOf('-');
+        if (dash < 0) {
+            throw new IllegalArgumentException("expected hours FROM-TO, got " + range);
+        }
+        int from;
+        int to;
+        try {
+            from = Integer.parseInt(range.substring(0, dash));
+            to = Integer.parseInt(range.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad hours " + range);
+        }
+        if (from < 0 || from > 23 || to < 0 || to > 24 || from == to) {
+            throw new IllegalArgumentException("bad hours " + range);
+        }
+        int length = Math.floorMod(to - from, 24);
+        if (length == 0) {
+            length = 24;
+        }
+        int mask = 0;
+        for (int h = 0; h < length; h++) {
+            mask |= 1 << (from + h) % 24;
+        }
+        return mask;
+    }
+
+    private static int parseDays(String list) {
+        int mask = 0;
+        for (String part : list.split(",")) {
+            int dash = part.indexOf('-');
+            int from = dayIndex(dash < 0 ? part : part.substring(0, dash));
+            int to = dash < 0 ? from : dayIndex(part.substring(dash + 1));
+            for (int d = from; ; d = (d + 1) % 7) {
+                mask |= 1 << d;
+                if (d == to) {
+                    break;
+                }
+            }
+        }
+        return mask;
+    }
+
+    private static int dayIndex(String day) {
+        for (int i = 0; i < DAYS.length; i++) {
+            if (DAYS[i].equals(day)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("bad day " + day);
+    }
+
+    /**
+     * Wall clock time shifted into the default zone, as the rules' clock. The zone is looked up on
+     * every call, since the system replaces the default when the user or the network changes it.
+     */
+    public static LongSupplier localClock() {
+        return () -> {
+            long now = System.currentTimeMillis();
+            return now + TimeZone.getDefault().getOffset(now);
+        };
+    }
+
+    /** @return hour of the day, 0 to 23, of a local time in milliseconds */
+    public static int hourOf(long localMillis) {
+        return (int) (Math.floorMod(localMillis, DAY_MILLIS) / HOUR_MILLIS);
+    }
+
+    /** @return day of the week, 0 for Monday, of a local time in milliseconds */
+    public static int dayOf(long localMillis) {
+        // the epoch was a Thursday
+        return (int) Math.floorMod(Math.floorDiv(localMillis, DAY_MILLIS) + 3, 7L);
+    }
+
+    /** @return the presence mask bit of a device the rules mention, or 0 */
+    public long bitOf(long mac) {
+        int bit = bits.get(mac, -1);
+        return bit < 0 ? 0 : 1L << bit;
+    }
+
+    private boolean applies(int rule, long present, int hour, int day) {
+        return (present & required[rule]) == required[rule]
+                && (present & forbidden[rule]) == 0
+                && (hours[rule] >>> hour & 1) != 0
+                && (days[rule] >>> day & 1) != 0;
+    }
+
+    /** @return the presence mask bits of the devices the applying avoid rules rule out */
+    public long avoided(long present, int hour, int day) {
+        long mask = 0;
+        for (int i = 0; i < avoid.length; i++) {
+            if (avoid[i] && applies(i, present, hour, day)) {
+                mask |= bitOf(target[i]);
+            }
+        }
+        return mask;
+    }
+
+    /** @return the device the first applying prefer rule picks, or {@link MacAddress#INVALID} */
+    public long preferred(long present, long avoided, int hour, int day) {
+        for (int i = 0; i < avoid.length; i++) {
+            if (avoid[i]) {
+                continue;
+            }
+            long bit = bitOf(target[i]);
+            if ((present & bit) != 0 && (avoided & bit) == 0 && applies(i, present, hour, day)) {
+                return target[i];
+            }
+        }
+        return MacAddress.INVALID;
+    }
+
+    public int size() {
+        return avoid.length;
+    }
+
+    public int deviceCount() {
+        return deviceCount;
+    }
+
+    public boolean isEmpty() {
+        return avoid.length == 0;
+    }
+
+    /** The rules as written. */
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,83 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Publishes the latest value of some state to subscribers. Subscribers are held weakly, so a
+ * subscriber that is dropped without unsubscribing cannot leak; the caller keeps the listener
+ * reachable for as long as it wants updates, typically in a field of the owning component. A new
+ * subscriber immediately gets the latest value, and every delivery runs on the executor the
+ * subscriber chose.
+ *
+ * @param <S> the state type, which should be immutable
+ */
+public final class StateBus<S> {
+
+    /** A live subscription. Closing it stops deliveries that have not started yet. */
+    public final class Subscription implements AutoCloseable {
+        private final WeakReference<Consumer<? super S>> listener;
+        private final Executor executor;
+        private volatile boolean closed;
+
+        Subscription(Consumer<? super S> listener, Executor executor) {
+            this.listener = new WeakReference<>(listener);
+            this.executor = executor;
+        }
+
+        boolean isLive() {
+            return !closed && listener.get() != null;
+        }
+
+        void deliver(S state) {
+            executor.execute(() -> {
+                Consumer<? super S> l = listener.get();
+                if (!closed && l != null) {
+                    l.accept(state);
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+        }
+    }
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile S latest;
+
+    /** @return the latest published state, or null if nothing was published yet */
+    public S getLatest() {
+        return latest;
+    }
+
+    public Subscription subscribe(Executor executor, Consumer<? super S> listener) {
+        Subscription subscription = new Subscription(listener, executor);
+        subscriptions.add(subscription);
+        S state = latest;
+        if (state != null) {
+            subscription.deliver(state);
+        }
+        return subscription;
+    }
+
+    public void publish(S state) {
+        latest = state;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.isLive()) {
+                subscription.deliver(state);
+            } else {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /** @return the number of subscriptions, including collected ones not yet pruned */
+    public int size() {
+        return subscriptions.size();
+    }
+}
@@ -0,0 +1,254 @@
+package com.zm.forcedaudiorouter.core;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+
+/**
+ * Turns a switch of the active device into a tracked operation. The switch is issued, the stack
+ * is read back after a pause, and the switch is issued again with a growing pause until the
+ * target is confirmed, the attempts run out or the deadline passes. Only one switch is in
+ * flight at a time; asking for another target supersedes it, asking for the same one is a no-op.
+ * The listener hears every finished switch after the tracker has released its lock.
+ */
+public final class SwitchTracker {
+
+    public enum Result {
+        /** The stack reports the target as active. */
+        CONFIRMED,
+        /** One attempt: the call went through. Not a final result. */
+        ACCEPTED,
+        /** The stack returned false. */
+        REJECTED,
+        /** The switch cannot be made on this platform. */
+        UNAVAILABLE,
+        /** The call threw, or there was no proxy to make it on. */
+        FAILED,
+        /** The target is not connected any more. */
+        NOT_CONNECTED,
+        /** Every attempt was accepted but the target never became active. */
+        TIMED_OUT,
+        /** A switch to another device replaced this one. */
+        SUPERSEDED
+    }
+
+    /** The stack the switches are made on. */
+    public interface Stack {
+        /** @return ACCEPTED, REJECTED, UNAVAILABLE, FAILED or NOT_CONNECTED */
+        Result issue(long mac);
+
+        /**
+         * @return the active device as the stack reports it, {@link MacAddress#INVALID} for none,
+         * or {@link ActiveDeviceTracker#UNKNOWN}
+         */
+        long readActive();
+    }
+
+    public interface Listener {
+        /** @param readBack the last active device read back, as {@link Stack#readActive()} */
+        void onSwitchFinished(long target, Result result, long readBack);
+    }
+
+    public static final long DEFAULT_FIRST_CHECK_MILLIS = 250;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 1000;
+    public static final long DEFAULT_DEADLINE_MILLIS = 3000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+
+    private final RouteEventCoalescer.Scheduler scheduler;
+    private final Stack stack;
+    private final RoutingMetrics metrics;
+    private final Listener listener;
+
+    private final long firstCheckMillis;
+    private final long maxBackoffMillis;
+    private final long deadlineMillis;
+    private final int maxAttempts;
+
+    private final long[] results = new long[Result.values().length];
+
+    private boolean pending;
+    private long target = MacAddress.INVALID;
+    private long startedAt;
+    private int attempts;
+    private long backoff;
+    private Result lastAttempt;
+
+    private long lastTarget = MacAddress.INVALID;
+    private Result lastResult;
+
+    private static final class Finished {
+        final long target;
+        final Result result;
+        final long readBack;
+
+        Finished(long target, Result result, long readBack) {
+            this.target = target;
+            this.result = result;
+            this.readBack = readBack;
+        }
+    }
+
+    // finished switches waiting for the listener, which is only called outside the lock
+    private final ArrayDeque<Finished> finished = new ArrayDeque<>();
+
+    private final Runnable verify = () -> {
+        verify();
+        deliverFinished();
+    };
+
+    public SwitchTracker(RouteEventCoalescer.Scheduler scheduler, Stack stack, RoutingMetrics metrics, Listener listener) {
+        this(scheduler, stack, metrics, listener,
+                DEFAULT_FIRST_CHECK_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS, DEFAULT_DEADLINE_MILLIS, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public SwitchTracker(RouteEventCoalescer.Scheduler scheduler, Stack stack, RoutingMetrics metrics, Listener listener,
+                         long firstCheckMillis, long maxBackoffMillis, long deadlineMillis, int maxAttempts) {
+        this.scheduler = scheduler;
+        this.stack = stack;
+        this.metrics = metrics;
+        this.listener = listener;
+        this.firstCheckMillis = firstCheckMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.deadlineMillis = deadlineMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /** @return false if the switch failed outright, true if it is in flight */
+    public boolean start(long mac) {
+        boolean inFlight;
+        synchronized (this) {
+            inFlight = startLocked(mac);
+        }
+        deliverFinished();
+        return inFlight;
+    }
+
+    private boolean startLocked(long mac) {
+        if (pending) {
+            if (mac == target) {
+                return true;
+            }
+            finish(Result.SUPERSEDED, ActiveDeviceTracker.UNKNOWN);
+        }
+        pending = true;
+        target = mac;
+        startedAt = scheduler.now();
+        attempts = 0;
+        backoff = firstCheckMillis;
+        return attempt();
+    }
+
+    /** Confirms the switch early when the stack broadcasts the new active device. */
+    public void onActiveReported(long mac) {
+        synchronized (this) {
+            if (pending && mac == target) {
+                finish(Result.CONFIRMED, mac);
+            }
+        }
+        deliverFinished();
+    }
+
+    /** Drops the switch in flight without a result. */
+    public synchronized void cancel() {
+        scheduler.cancel(verify);
+        pending = false;
+    }
+
+    public synchronized boolean isPending() {
+        return pending;
+    }
+
+    /** @return true if the switch in flight targets the device */
+    public synchronized boolean isPending(long mac) {
+        return pending && target == mac;
+    }
+
+    public synchronized long getResultCount(Result result) {
+        return results[result.ordinal()];
+    }
+
+    private boolean attempt() {
+        attempts++;
+        if (attempts > 1) {
+            metrics.increment(RoutingMetrics.SWITCH_RETRIES);
+        }
+        Result result = stack.issue(target);
+        if (result == Result.UNAVAILABLE || result == Result.NOT_CONNECTED) {
+            // trying again cannot help
+            finish(result, ActiveDeviceTracker.UNKNOWN);
+            return false;
+        }
+        lastAttempt = result;
+        scheduler.schedule(verify, backoff);
+        return true;
+    }
+
+    private synchronized void verify() {
+        if (!pending) {
+            return;
+        }
+        long active = stack.readActive();
+        if (active == target) {
+            finish(Result.CONFIRMED, active);
+        } else if (attempts >= maxAttempts || scheduler.now() - startedAt >= deadlineMillis) {
+            finish(lastAttempt == Result.ACCEPTED ? Result.TIMED_OUT : lastAttempt, active);
+        } else {
+            backoff = Math.min(backoff * 2, maxBackoffMillis);
+            attempt();
+        }
+    }
+
+    private void finish(Result result, long readBack) {
+        scheduler.cancel(verify);
+        pending = false;
+        results[result.ordinal()]++;
+        lastTarget = target;
+        lastResult = result;
+        if (result == Result.CONFIRMED) {
+            metrics.increment(RoutingMetrics.SWITCHES_CONFIRMED);
+            metrics.switchToConfirmed.record(scheduler.now() - startedAt);
+        } else if (result == Result.SUPERSEDED) {
+            metrics.increment(RoutingMetrics.SWITCHES_SUPERSEDED);
+        } else {
+            metrics.increment(RoutingMetrics.SWITCHES_FAILED);
+        }
+        finished.add(new Finished(target, result, readBack));
+    }
+
+    private void deliverFinished() {
+        while (true) {
+            Finished f;
+            synchronized (this) {
+                f = finished.poll();
+            }
+            if (f == null) {
+                return;
+            }
+            listener.onSwitchFinished(f.target, f.result, f.readBack);
+        }
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix);
+        pw.print("switch: ");
+        if (pending) {
+            pw.print("pending " + MacAddress.format(target) + " attempt " + attempts);
+        } else {
+            pw.print("idle");
+        }
+        if (lastResult != null) {
+            pw.print(", last " + MacAddress.format(lastTarget) + " " + lastResult);
+        }
+        pw.println();
+        pw.print(prefix);
+        pw.print("switch results:");
+        for (Result result : Result.values()) {
+            if (result != Result.ACCEPTED) {
+                pw.print(' ');
+                pw.print(result.name().toLowerCase());
+                pw.print('=');
+                pw.print(results[result.ordinal()]);
+            }
+        }
+        pw.println();
+    }
+}
@@ -0,0 +1,103 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveDeviceTrackerTest {
+
+    private static final long A = 0x001B66000001L;
+    private static final long B = 0x001B66000002L;
+
+    private static final class Stack implements RoutingCore.AudioStack {
+        long[] connected;
+        long active = MacAddress.INVALID;
+        int queries;
+        int switches;
+
+        Stack(long... connected) {
+            this.connected = connected;
+        }
+
+        @Override
+        public int connectedCount() {
+            return connected.length;
+        }
+
+        @Override
+        public long connectedMac(int index) {
+            return connected[index];
+        }
+
+        @Override
+        public boolean isActive(int index) {
+            queries++;
+            return connected[index] == active;
+        }
+
+        @Override
+        public boolean isSwitching(int index) {
+            return false;
+        }
+
+        @Override
+        public boolean setActive(int index) {
+            switches++;
+            active = connected[index];
+            return true;
+        }
+    }
+
+    @Test
+    public void playingDeviceBecomesActive() {
+        ActiveDeviceTracker tracker = new ActiveDeviceTracker();
+        assertEquals(ActiveDeviceTracker.UNKNOWN, tracker.getActive());
+
+        tracker.onPlayingStateChanged(A, true);
+        assertEquals(A, tracker.getActive());
+        assertTrue(tracker.isPlaying());
+
+        tracker.onPlayingStateChanged(A, false);
+        assertEquals(A, tracker.getActive());
+        assertFalse(tracker.isPlaying());
+
+        tracker.onActiveDeviceChanged(MacAddress.INVALID);
+        assertEquals(MacAddress.INVALID, tracker.getActive());
+    }
+
+    @Test
+    public void seedDoesNotOverrideBroadcast() {
+        ActiveDeviceTracker tracker = new ActiveDeviceTracker();
+        tracker.onActiveDeviceChanged(B);
+        tracker.seed(A);
+        assertEquals(B, tracker.getActive());
+    }
+
+    @Test
+    public void knownActiveDeviceSkipsTheSwitchWithoutAskingTheStack() {
+        RoutingMetrics metrics = new RoutingMetrics();
+        long[] now = {0};
+        RoutingCore core = new RoutingCore(metrics, () -> now[0]);
+        core.setPolicy(PriorityPolicy.compile(new long[]{A, B}));
+        Stack stack = new Stack(B, A);
+
+        assertEquals(RoutingCore.SWITCHED, core.evaluate(stack));
+        assertEquals(1, stack.queries);
+
+        // paused but still active: no second switch and no query
+        core.getActiveDevice().onPlayingStateChanged(A, false);
+        assertEquals(RoutingCore.ALREADY_ACTIVE, core.evaluate(stack));
+        assertEquals(1, stack.queries);
+        assertEquals(1, stack.switches);
+        assertEquals(1, metrics.get(RoutingMetrics.SWITCHES_SKIPPED_ACTIVE));
+
+        core.getActiveDevice().onActiveDeviceChanged(B);
+        assertEquals(RoutingCore.SUPPRESSED, core.evaluate(stack));
+        assertEquals(FlapGuard.DEFAULT_HYSTERESIS_MILLIS, core.getRetryAt());
+        now[0] = core.getRetryAt();
+        assertEquals(RoutingCore.SWITCHED, core.evaluate(stack));
+        assertEquals(2, stack.switches);
+    }
+}
@@ -0,0 +1,54 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConfigTransitionTest {
+
+    private static final RoutingConfig ENABLED = RoutingConfig.DEFAULT.withEnabled(true);
+
+    @Test
+    public void disablingStopsEvenWhenTheTriggerFlipsToo() {
+        RoutingConfig next = ENABLED.withEnabled(false).withPlaybackTrigger(false);
+
+        assertEquals(ConfigTransition.STOP, ConfigTransition.of(ENABLED, next, true, true));
+    }
+
+    @Test
+    public void enablingStartsWithoutTogglingTheTrigger() {
+        RoutingConfig previous = RoutingConfig.DEFAULT.withPlaybackTrigger(false);
+
+        assertEquals(ConfigTransition.START, ConfigTransition.of(previous, ENABLED, true, false));
+    }
+
+    @Test
+    public void runningEngineTogglesTheTrigger() {
+        RoutingConfig off = ENABLED.withPlaybackTrigger(false);
+
+        assertEquals(ConfigTransition.STOP_TRIGGER, ConfigTransition.of(ENABLED, off, true, true));
+        assertEquals(ConfigTransition.START_TRIGGER, ConfigTransition.of(off, ENABLED, true, true));
+    }
+
+    @Test
+    public void idleEngineIgnoresTheTrigger() {
+        RoutingConfig off = RoutingConfig.DEFAULT.withPlaybackTrigger(false);
+
+        assertEquals(0, ConfigTransition.of(RoutingConfig.DEFAULT, off, true, false));
+        assertEquals(ConfigTransition.RELEASE, ConfigTransition.of(null, off, true, false));
+    }
+
+    @Test
+    public void changedRulesReselect() {
+        RoutingConfig ruled = ENABLED.withRules("prefer AA:00:00:00:00:01").withPlaybackTrigger(false);
+
+        assertEquals(ConfigTransition.RESELECT | ConfigTransition.STOP_TRIGGER,
+                ConfigTransition.of(ENABLED, ruled, true, true));
+        assertEquals(0, ConfigTransition.of(ruled, ruled.withCoalescingWindow(10, 100), true, true));
+    }
+
+    @Test
+    public void detachedEngineStops() {
+        assertEquals(ConfigTransition.STOP, ConfigTransition.of(ENABLED, ENABLED.withFlapLimits(1, 1), false, true));
+    }
+}
@@ -0,0 +1,78 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectedDevicesTest {
+
+    private static BTDevice device(long mac) {
+        return new BTDevice("d" + mac, mac);
+    }
+
+    private static ConnectedDevices<BTDevice> table() {
+        return new ConnectedDevices<>(BTDevice::getMac);
+    }
+
+    @Test
+    public void keepsConnectionOrder() {
+        ConnectedDevices<BTDevice> table = table();
+        table.onConnected(device(3));
+        table.onConnected(device(1));
+        table.onConnected(device(2));
+        table.onDisconnected(1);
+
+        ConnectedDevices.Snapshot<BTDevice> s = table.snapshot();
+        assertEquals(2, s.size());
+        assertEquals(3, s.macAt(0));
+        assertEquals(2, s.macAt(1));
+        assertEquals(2, s.deviceAt(1).getMac());
+    }
+
+    @Test
+    public void duplicateAndUnknownUpdatesLeaveTheSnapshotAlone() {
+        ConnectedDevices<BTDevice> table = table();
+        table.onConnected(device(1));
+        ConnectedDevices.Snapshot<BTDevice> before = table.snapshot();
+
+        table.onConnected(device(1));
+        table.onDisconnected(9);
+
+        assertEquals(1, table.snapshot().size());
+        assertEquals(before.macAt(0), table.snapshot().macAt(0));
+    }
+
+    @Test
+    public void oldSnapshotsDoNotChange() {
+        ConnectedDevices<BTDevice> table = table();
+        table.onConnected(device(1));
+        ConnectedDevices.Snapshot<BTDevice> before = table.snapshot();
+        table.onConnected(device(2));
+
+        assertEquals(1, before.size());
+        assertEquals(2, table.snapshot().size());
+    }
+
+    @Test
+    public void reconcileReplacesContentsAndValidates() {
+        ConnectedDevices<BTDevice> table = table();
+        assertFalse(table.isValid());
+        table.onConnected(device(5));
+
+        BTDevice one = device(1);
+        table.reconcile(Arrays.asList(one, device(2), device(1)));
+        assertTrue(table.isValid());
+        assertEquals(2, table.snapshot().size());
+        assertSame(one, table.snapshot().deviceAt(0));
+        assertEquals(-1, table.snapshot().indexOf(5));
+
+        table.invalidate();
+        assertFalse(table.isValid());
+        assertEquals(2, table.snapshot().size());
+    }
+}
@@ -0,0 +1,82 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceDiscoveryTest {
+
+    private static final BTDevice SPEAKER = new BTDevice("Speaker", "00:11:22:33:44:55");
+    private static final BTDevice HEADSET = new BTDevice("Headset", "AA:BB:CC:DD:EE:FF");
+
+    private FakeScheduler scheduler;
+    private List<List<BTDevice>> progress;
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        progress = new ArrayList<>();
+    }
+
+    private DeviceDiscovery discovery(int sources) {
+        return new DeviceDiscovery(sources, scheduler, 1000, progress::add);
+    }
+
+    @Test
+    public void mergesSourcesByMac() throws Exception {
+        DeviceDiscovery discovery = discovery(2);
+        discovery.onFound(Arrays.asList(SPEAKER, HEADSET));
+        discovery.onFound(Collections.singletonList(new BTDevice("Speaker", SPEAKER.getMac())));
+
+        assertEquals(Arrays.asList(SPEAKER, HEADSET), discovery.getResult().get());
+        assertFalse(discovery.isTimedOut());
+        assertEquals(null, scheduler.task);
+    }
+
+    @Test
+    public void reportsProgressBeforeEverySourceAnswered() {
+        DeviceDiscovery discovery = discovery(3);
+        discovery.onFound(Collections.singletonList(SPEAKER));
+        discovery.onFailed();
+
+        assertEquals(1, progress.size());
+        assertEquals(Collections.singletonList(SPEAKER), progress.get(0));
+        assertFalse(discovery.getResult().isDone());
+    }
+
+    @Test
+    public void timeoutCompletesWithWhatArrived() throws Exception {
+        DeviceDiscovery discovery = discovery(2);
+        discovery.onFound(Collections.singletonList(HEADSET));
+        scheduler.advanceTo(1000);
+
+        assertTrue(discovery.isTimedOut());
+        assertEquals(Collections.singletonList(HEADSET), discovery.getResult().get());
+
+        // the late source is dropped
+        discovery.onFound(Collections.singletonList(SPEAKER));
+        assertEquals(Collections.singletonList(HEADSET), discovery.getResult().get());
+    }
+
+    @Test
+    public void laterSourceFillsInMissingName() throws Exception {
+        DeviceDiscovery discovery = discovery(2);
+        discovery.onFound(Collections.singletonList(new BTDevice(null, SPEAKER.getMac())));
+        discovery.onFound(Collections.singletonList(SPEAKER));
+
+        assertEquals("Speaker", discovery.getResult().get().get(0).getName());
+    }
+
+    @Test
+    public void noSourcesCompletesEmpty() throws Exception {
+        assertTrue(discovery(0).getResult().get().isEmpty());
+    }
+}
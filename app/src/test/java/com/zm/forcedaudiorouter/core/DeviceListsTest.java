@@ -0,0 +1,38 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeviceListsTest {
+
+    @Test
+    public void sortsByNameThenAddress() {
+        List<BTDevice> sorted = DeviceLists.sortedUnique(Arrays.asList(
+                new BTDevice("Speaker", "00:00:00:00:00:02"),
+                new BTDevice("Car", "00:00:00:00:00:03"),
+                new BTDevice("Speaker", "00:00:00:00:00:01"),
+                new BTDevice(null, "00:00:00:00:00:04")));
+
+        assertEquals(4, sorted.size());
+        assertEquals(4, sorted.get(0).getMac());
+        assertEquals(3, sorted.get(1).getMac());
+        assertEquals(1, sorted.get(2).getMac());
+        assertEquals(2, sorted.get(3).getMac());
+    }
+
+    @Test
+    public void keepsOneEntryPerMacWithTheLastName() {
+        List<BTDevice> sorted = DeviceLists.sortedUnique(Arrays.asList(
+                new BTDevice("Old Name", "00:00:00:00:00:01"),
+                new BTDevice("Other", "00:00:00:00:00:02"),
+                new BTDevice("New Name", "00:00:00:00:00:01")));
+
+        assertEquals(2, sorted.size());
+        assertEquals("New Name", sorted.get(0).getName());
+        assertEquals("Other", sorted.get(1).getName());
+    }
+}
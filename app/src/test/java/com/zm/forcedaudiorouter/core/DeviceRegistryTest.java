@@ -0,0 +1,139 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class DeviceRegistryTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final BTDevice CAR = new BTDevice("Car", "00:0A:9B:83:80:72");
+    private static final BTDevice DESK = new BTDevice("Desk", "AA:BB:CC:DD:EE:FF");
+
+    @Test
+    public void recordsSurviveReload() throws Exception {
+        File file = new File(tmp.getRoot(), "devices.bin");
+        DeviceRegistry registry = new DeviceRegistry(file);
+        registry.recordSeen(Arrays.asList(CAR, DESK), 1000, 60000);
+        registry.setPriorityDevices(Arrays.asList(DESK, CAR));
+        registry.put(registry.get(CAR.mac).withOptions(3));
+
+        DeviceRegistry reloaded = new DeviceRegistry(file);
+        assertEquals(2, reloaded.size());
+        assertArrayEquals(new long[]{DESK.mac, CAR.mac}, reloaded.getPriorityOrder());
+        assertEquals(3, reloaded.get(CAR.mac).options);
+        assertEquals("Car", reloaded.get(CAR.mac).name);
+        assertEquals(1000, reloaded.get(CAR.mac).lastSeen);
+    }
+
+    @Test
+    public void tornTailIsIgnoredAndOverwritten() throws Exception {
+        File file = new File(tmp.getRoot(), "devices.bin");
+        DeviceRegistry registry = new DeviceRegistry(file);
+        registry.setPriorityDevices(Collections.singletonList(CAR));
+        registry.recordSeen(Collections.singletonList(DESK), 5, 0);
+        long length = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length - 3);
+        }
+
+        DeviceRegistry reloaded = new DeviceRegistry(file);
+        assertNull(reloaded.get(DESK.mac));
+        assertNotNull(reloaded.get(CAR.mac));
+
+        reloaded.recordSeen(Collections.singletonList(DESK), 6, 0);
+        assertEquals(6, new DeviceRegistry(file).get(DESK.mac).lastSeen);
+    }
+
+    @Test
+    public void unknownFormatStartsEmpty() throws Exception {
+        File file = new File(tmp.getRoot(), "devices.bin");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("<map></map>".getBytes("UTF-8"));
+        }
+
+        DeviceRegistry registry = new DeviceRegistry(file);
+        assertEquals(0, registry.size());
+        registry.setPriorityDevices(Collections.singletonList(CAR));
+        assertArrayEquals(new long[]{CAR.mac}, new DeviceRegistry(file).getPriorityOrder());
+    }
+
+    @Test
+    public void repeatedUpdatesCompactTheFile() throws Exception {
+        File file = new File(tmp.getRoot(), "devices.bin");
+        DeviceRegistry registry = new DeviceRegistry(file);
+        for (int i = 0; i < 1000; i++) {
+            registry.recordSeen(Collections.singletonList(CAR), i, 0);
+        }
+
+        assertTrue(file.length() < 2048);
+        assertEquals(999, new DeviceRegistry(file).get(CAR.mac).lastSeen);
+    }
+
+    @Test
+    public void unnamedDeviceIsNotRewrittenWithinTheInterval() throws Exception {
+        File file = new File(tmp.getRoot(), "devices.bin");
+        DeviceRegistry registry = new DeviceRegistry(file);
+        BTDevice unnamed = new BTDevice(null, CAR.mac);
+        registry.recordSeen(Arrays.asList(unnamed, DESK), 1000, 60000);
+        long length = file.length();
+
+        registry.recordSeen(Collections.singletonList(unnamed), 2000, 60000);
+
+        assertEquals(length, file.length());
+        assertEquals("", registry.get(CAR.mac).name);
+    }
+
+    @Test
+    public void seenDevicesAreAppendedTogether() throws Exception {
+        File file = new File(tmp.getRoot(), "devices.bin");
+        DeviceRegistry registry = new DeviceRegistry(file);
+        registry.recordSeen(Arrays.asList(CAR, DESK), 1000, 60000);
+
+        registry.recordSeen(Arrays.asList(CAR, DESK), 70000, 60000);
+
+        DeviceRegistry reloaded = new DeviceRegistry(file);
+        assertEquals(70000, reloaded.get(CAR.mac).lastSeen);
+        assertEquals(70000, reloaded.get(DESK.mac).lastSeen);
+    }
+
+    @Test
+    public void listenersHearChanges() throws Exception {
+        DeviceRegistry registry = new DeviceRegistry(new File(tmp.getRoot(), "devices.bin"));
+        int[] calls = {0};
+        registry.addListener(r -> calls[0]++);
+
+        registry.setPriorityDevices(Collections.singletonList(CAR));
+        registry.recordSeen(Collections.singletonList(CAR), 0, 60000);
+        registry.remove(CAR.mac);
+
+        assertEquals(2, calls[0]);
+    }
+
+    @Test
+    public void changesPublishSnapshots() throws Exception {
+        File file = new File(tmp.getRoot(), "devices.bin");
+        new DeviceRegistry(file).setPriorityDevices(Collections.singletonList(CAR));
+        DeviceRegistry registry = new DeviceRegistry(file);
+        assertNull(registry.getSnapshots().getLatest());
+
+        registry.load();
+        assertEquals(Collections.singletonList(registry.get(CAR.mac)), registry.getSnapshots().getLatest().priority);
+
+        registry.recordSeen(Collections.singletonList(DESK), 1000, 60000);
+        DeviceRegistry.Snapshot snapshot = registry.getSnapshots().getLatest();
+        assertEquals(2, snapshot.all.size());
+        assertEquals("Desk", snapshot.get(DESK.mac).name);
+        assertEquals(1, snapshot.priority.size());
+    }
+}
@@ -0,0 +1,93 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DiscoveryCacheTest {
+
+    private static final BTDevice SPEAKER = new BTDevice("Speaker", "00:11:22:33:44:55");
+
+    private long now;
+    private int scans;
+    private CompletableFuture<List<? extends BTDevice>> scan;
+    private Consumer<List<? extends BTDevice>> progress;
+    private DiscoveryCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new DiscoveryCache(p -> {
+            scans++;
+            progress = p;
+            return scan = new CompletableFuture<>();
+        }, () -> now, 1000);
+    }
+
+    @Test
+    public void firstRequestScansAndServesNothingYet() {
+        assertNull(cache.getOrRefresh());
+        assertEquals(1, scans);
+
+        scan.complete(Collections.singletonList(SPEAKER));
+        assertEquals(Collections.singletonList(SPEAKER), cache.get().devices);
+        assertTrue(cache.get().complete);
+    }
+
+    @Test
+    public void freshResultIsServedWithoutScanning() {
+        cache.refresh();
+        scan.complete(Collections.singletonList(SPEAKER));
+        now = 400;
+
+        DiscoveryCache.Entry entry = cache.getOrRefresh();
+        assertEquals(1, scans);
+        assertEquals(400, entry.ageMillis(now));
+    }
+
+    @Test
+    public void expiredResultIsServedAndRefreshed() {
+        cache.refresh();
+        scan.complete(Collections.singletonList(SPEAKER));
+        now = 1000;
+
+        assertEquals(Collections.singletonList(SPEAKER), cache.getOrRefresh().devices);
+        assertEquals(2, scans);
+    }
+
+    @Test
+    public void invalidationDuringScanKeepsResultStale() {
+        cache.refresh();
+        cache.invalidate();
+        scan.complete(Collections.singletonList(SPEAKER));
+
+        assertTrue(cache.isStale());
+        cache.getOrRefresh();
+        scan.complete(Collections.singletonList(SPEAKER));
+        assertFalse(cache.isStale());
+    }
+
+    @Test
+    public void concurrentRefreshesShareOneScan() {
+        assertSame(cache.refresh(), cache.refresh());
+        assertEquals(1, scans);
+    }
+
+    @Test
+    public void partialResultsArePublishedButNotCached() {
+        cache.refresh();
+        progress.accept(Collections.singletonList(SPEAKER));
+
+        assertFalse(cache.getUpdates().getLatest().complete);
+        assertNull(cache.get());
+    }
+}
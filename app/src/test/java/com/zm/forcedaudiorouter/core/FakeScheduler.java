@@ -0,0 +1,40 @@
+package com.zm.forcedaudiorouter.core;
+
+/**
+ * A manual clock for the classes that take a {@link RouteEventCoalescer.Scheduler}. Keeps the one
+ * pending task they use and runs it when the clock is advanced past its due time.
+ */
+final class FakeScheduler implements RouteEventCoalescer.Scheduler {
+    long now;
+    Runnable task;
+    long due;
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        this.task = task;
+        this.due = now + delayMillis;
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        if (this.task == task) {
+            this.task = null;
+        }
+    }
+
+    /** Runs every task that falls due on the way, each at its due time. */
+    void advanceTo(long time) {
+        while (task != null && due <= time) {
+            now = due;
+            Runnable t = task;
+            task = null;
+            t.run();
+        }
+        now = time;
+    }
+}
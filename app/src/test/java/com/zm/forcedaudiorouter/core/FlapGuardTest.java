@@ -0,0 +1,110 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlapGuardTest {
+
+    private static final long MAC = 0x001122334455L;
+
+    private RoutingMetrics metrics;
+    private FlapGuard guard;
+
+    @Before
+    public void setUp() {
+        metrics = new RoutingMetrics();
+        guard = new FlapGuard(metrics);
+        guard.setLimits(2000, 6);
+    }
+
+    @Test
+    public void firstSwitchIsAllowed() {
+        assertEquals(0, guard.blockedUntil(MAC, 0));
+    }
+
+    @Test
+    public void hysteresisHoldsBackAQuickSwitchBack() {
+        guard.onSwitched(MAC, 1000);
+
+        assertEquals(3000, guard.blockedUntil(MAC, 1500));
+        assertEquals(0, guard.blockedUntil(MAC, 3000));
+    }
+
+    @Test
+    public void repeatedFlapsPutTheDeviceOnHold() {
+        long t = 0;
+        for (int i = 0; i < FlapGuard.FLAP_THRESHOLD + 1; i++) {
+            assertEquals(0, guard.blockedUntil(MAC, t));
+            guard.onSwitched(MAC, t);
+            t += 2000;
+        }
+
+        assertEquals(FlapGuard.FLAP_THRESHOLD, metrics.get(RoutingMetrics.FLAPS_DETECTED));
+        assertTrue(guard.isHeld(MAC, t));
+        assertEquals(t - 2000 + FlapGuard.MIN_HOLD_MILLIS, guard.blockedUntil(MAC, t));
+    }
+
+    @Test
+    public void holdDoublesWhileTheFightGoesOn() {
+        long t = 0;
+        long firstHoldEnd = 0;
+        // the switch after a hold is not a flap, so the second hold takes one more
+        for (int i = 0; i < 2 * FlapGuard.FLAP_THRESHOLD + 2; i++) {
+            long until = guard.blockedUntil(MAC, t);
+            if (until != 0) {
+                firstHoldEnd = until;
+                t = until;
+            }
+            guard.onSwitched(MAC, t);
+            t += 2000;
+        }
+
+        assertTrue(firstHoldEnd > 0);
+        assertTrue(guard.isHeld(MAC, t));
+        assertEquals(2 * FlapGuard.MIN_HOLD_MILLIS, guard.blockedUntil(MAC, t) - (t - 2000));
+    }
+
+    @Test
+    public void bucketLimitsSwitchesPerMinute() {
+        guard.setLimits(0, 3);
+        // spaced out so none of them count as a flap
+        long t = 0;
+        for (int i = 0; i < 3; i++) {
+            guard.onSwitched(MAC, t);
+            t += FlapGuard.FLAP_WINDOW_MILLIS;
+        }
+
+        // 30 s in, one token of the three has come back at 20 s per token
+        assertEquals(0, guard.blockedUntil(MAC, t));
+        guard.onSwitched(MAC, t);
+        // half a token left, the next one is 10 s away
+        assertEquals(t + 10_000, guard.blockedUntil(MAC, t + 1000));
+        assertFalse(guard.isHeld(MAC, t));
+    }
+
+    @Test
+    public void devicesAreLimitedSeparately() {
+        guard.onSwitched(MAC, 0);
+
+        assertEquals(0, guard.blockedUntil(MAC + 1, 100));
+    }
+
+    @Test
+    public void dumpShowsHeldDevices() {
+        for (int i = 0; i <= FlapGuard.FLAP_THRESHOLD; i++) {
+            guard.onSwitched(MAC, i * 2000L);
+        }
+        StringWriter out = new StringWriter();
+        guard.dump(new PrintWriter(out), "", 8000);
+
+        assertTrue(out.toString().contains(MacAddress.format(MAC)));
+        assertTrue(out.toString().contains("HELD"));
+    }
+}
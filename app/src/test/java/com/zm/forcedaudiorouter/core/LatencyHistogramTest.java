@@ -0,0 +1,40 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesFallInBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 0; i < 90; i++) {
+            histogram.record(3);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(150);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5, histogram.getPercentile(50));
+        assertEquals(5, histogram.getPercentile(90));
+        assertEquals(200, histogram.getPercentile(99));
+        assertEquals(150, histogram.getMax());
+        assertEquals(17, histogram.getMean());
+    }
+
+    @Test
+    public void overflowBucketReportsMax() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(60000);
+
+        assertEquals(60000, histogram.getPercentile(50));
+        StringWriter out = new StringWriter();
+        histogram.dump(new PrintWriter(out), "");
+        assertTrue(out.toString().contains(">10000:1"));
+    }
+}
@@ -0,0 +1,49 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongIntMapTest {
+
+    @Test
+    public void matchesHashMapUnderRandomOperations() {
+        LongIntMap map = new LongIntMap();
+        Map<Long, Integer> reference = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextInt(512);
+            if (random.nextInt(3) == 0) {
+                assertEquals(reference.remove(key) != null, map.remove(key));
+            } else {
+                map.put(key, i);
+                reference.put(key, i);
+            }
+            assertEquals(reference.size(), map.size());
+        }
+        for (long key = 0; key < 512; key++) {
+            Integer expected = reference.get(key);
+            assertEquals(expected == null ? -1 : expected, map.get(key, -1));
+        }
+    }
+
+    @Test
+    public void longMapRemoveKeepsOtherKeysReachable() {
+        LongMap<String> map = new LongMap<>(2);
+        for (long key = 0; key < 100; key++) {
+            map.put(key << 40, "v" + key);
+        }
+        for (long key = 0; key < 100; key += 2) {
+            assertEquals("v" + key, map.remove(key << 40));
+        }
+        for (long key = 1; key < 100; key += 2) {
+            assertEquals("v" + key, map.get(key << 40));
+        }
+        assertEquals(50, map.size());
+    }
+}
@@ -0,0 +1,43 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MacAddressTest {
+
+    @Test
+    public void parseAndFormatRoundTrip() {
+        long mac = MacAddress.parse("00:0A:9B:83:80:72");
+
+        assertEquals(0x000A9B838072L, mac);
+        assertEquals("00:0A:9B:83:80:72", MacAddress.format(mac));
+    }
+
+    @Test
+    public void parseIsCaseInsensitive() {
+        assertEquals(MacAddress.parse("AA:BB:CC:DD:EE:FF"), MacAddress.parse("aa:bb:cc:dd:ee:ff"));
+    }
+
+    @Test
+    public void parseRangeOfSerializedDevice() {
+        String ser = "00:11:22:33:44:55|Fake Device 1";
+
+        assertEquals(0x001122334455L, MacAddress.parse(ser, 0, ser.indexOf('|')));
+    }
+
+    @Test
+    public void malformedAddressesAreInvalid() {
+        assertEquals(MacAddress.INVALID, MacAddress.parse("N/A"));
+        assertEquals(MacAddress.INVALID, MacAddress.parse("00:11:22:33:44:5G"));
+        assertEquals(MacAddress.INVALID, MacAddress.parse("00-11-22-33-44-55"));
+        assertEquals(MacAddress.INVALID, MacAddress.parse(null));
+        assertFalse(MacAddress.isValid(MacAddress.INVALID));
+    }
+
+    @Test
+    public void devicesEqualByMac() {
+        assertEquals(new BTDevice("a", "aa:bb:cc:dd:ee:ff"), new BTDevice("b", "AA:BB:CC:DD:EE:FF"));
+        assertEquals(new BTDevice("a", 0xAABBCCDDEEFFL).hashCode(), new BTDevice("AA:BB:CC:DD:EE:FF|b").hashCode());
+    }
+}
@@ -0,0 +1,36 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PriorityPolicyTest {
+
+    private static final long A = MacAddress.parse("AA:00:00:00:00:01");
+    private static final long B = MacAddress.parse("AA:00:00:00:00:02");
+    private static final long C = MacAddress.parse("AA:00:00:00:00:03");
+
+    @Test
+    public void ranksFollowListOrder() {
+        PriorityPolicy policy = PriorityPolicy.compile(new long[]{A, B});
+
+        assertEquals(0, policy.rankOf(A));
+        assertEquals(1, policy.rankOf(B));
+        assertEquals(PriorityPolicy.UNRANKED, policy.rankOf(C));
+    }
+
+    @Test
+    public void duplicatesKeepFirstRank() {
+        PriorityPolicy policy = PriorityPolicy.compile(new long[]{A, B, A});
+
+        assertEquals(2, policy.size());
+        assertEquals(0, policy.rankOf(A));
+        assertEquals(B, policy.macAt(1));
+    }
+
+    @Test
+    public void invalidAndEmptyCompileToEmptyPolicy() {
+        assertSame(PriorityPolicy.EMPTY, PriorityPolicy.compile(new long[0]));
+        assertSame(PriorityPolicy.EMPTY, PriorityPolicy.compile(new long[]{MacAddress.INVALID}));
+    }
+}
@@ -0,0 +1,62 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RouteEventCoalescerTest {
+
+    private FakeScheduler scheduler;
+    private List<long[]> evaluations;
+    private RouteEventCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        evaluations = new ArrayList<>();
+        coalescer = new RouteEventCoalescer(scheduler, (first, events) -> evaluations.add(new long[]{first, events, scheduler.now}));
+        coalescer.setWindow(100, 300);
+    }
+
+    @Test
+    public void burstCollapsesToOneEvaluation() {
+        for (int t = 0; t < 50; t += 5) {
+            scheduler.advanceTo(t);
+            coalescer.onEvent();
+        }
+        scheduler.advanceTo(1000);
+
+        assertEquals(1, evaluations.size());
+        assertEquals(0, evaluations.get(0)[0]);
+        assertEquals(10, evaluations.get(0)[1]);
+        assertEquals(145, evaluations.get(0)[2]);
+        assertEquals(9, coalescer.getEventsCoalesced());
+    }
+
+    @Test
+    public void continuousStormIsBoundedByMaxDelay() {
+        for (int t = 0; t <= 1000; t += 50) {
+            scheduler.advanceTo(t);
+            coalescer.onEvent();
+        }
+        scheduler.advanceTo(2000);
+
+        assertEquals(300, evaluations.get(0)[2]);
+        assertEquals(4, evaluations.size());
+        assertEquals(21, coalescer.getEventsReceived());
+    }
+
+    @Test
+    public void flushRunsPendingImmediately() {
+        coalescer.onEvent();
+        coalescer.flush();
+        scheduler.advanceTo(1000);
+
+        assertEquals(1, evaluations.size());
+        assertEquals(0, evaluations.get(0)[2]);
+    }
+}
@@ -0,0 +1,41 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RoutingConfigTest {
+
+    @Test
+    public void withersLeaveTheOriginalAlone() {
+        RoutingConfig enabled = RoutingConfig.DEFAULT.withEnabled(true);
+        RoutingConfig windowed = enabled.withCoalescingWindow(50, 200);
+
+        assertFalse(RoutingConfig.DEFAULT.enabled);
+        assertTrue(enabled.enabled);
+        assertEquals(RouteEventCoalescer.DEFAULT_QUIET_WINDOW_MILLIS, enabled.quietWindowMillis);
+        assertTrue(windowed.enabled);
+        assertEquals(50, windowed.quietWindowMillis);
+        assertEquals(200, windowed.maxDelayMillis);
+
+        RoutingConfig limited = windowed.withFlapLimits(5000, 2);
+        assertEquals(FlapGuard.DEFAULT_HYSTERESIS_MILLIS, windowed.hysteresisMillis);
+        assertEquals(5000, limited.hysteresisMillis);
+        assertEquals(2, limited.maxSwitchesPerMinute);
+        assertEquals(50, limited.quietWindowMillis);
+    }
+
+    @Test
+    public void equalityCoversEveryField() {
+        assertEquals(RoutingConfig.DEFAULT, RoutingConfig.DEFAULT.withEnabled(false));
+        assertNotEquals(RoutingConfig.DEFAULT, RoutingConfig.DEFAULT.withEnabled(true));
+        assertNotEquals(RoutingConfig.DEFAULT, RoutingConfig.DEFAULT.withCoalescingWindow(1, 500));
+        assertNotEquals(RoutingConfig.DEFAULT, RoutingConfig.DEFAULT.withFlapLimits(FlapGuard.DEFAULT_HYSTERESIS_MILLIS, 1));
+        assertNotEquals(RoutingConfig.DEFAULT, RoutingConfig.DEFAULT.withRules("prefer AA:00:00:00:00:01"));
+        assertEquals(RoutingConfig.DEFAULT, RoutingConfig.DEFAULT.withRules(null));
+        assertNotEquals(RoutingConfig.DEFAULT, RoutingConfig.DEFAULT.withPlaybackTrigger(false));
+    }
+}
@@ -0,0 +1,189 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RoutingCoreTest {
+
+    private static final long A = MacAddress.parse("AA:00:00:00:00:01");
+    private static final long B = MacAddress.parse("AA:00:00:00:00:02");
+    private static final long C = MacAddress.parse("AA:00:00:00:00:03");
+
+    private static final long MONDAY = 18267L * 24 * 60 * 60 * 1000;
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private static final class Stack implements RoutingCore.AudioStack {
+        long[] connected;
+        long playing = MacAddress.INVALID;
+        long switching = MacAddress.INVALID;
+        boolean reject;
+        int queries;
+        int switches;
+        long switchedTo = MacAddress.INVALID;
+
+        Stack(long... connected) {
+            this.connected = connected;
+        }
+
+        @Override
+        public int connectedCount() {
+            return connected.length;
+        }
+
+        @Override
+        public long connectedMac(int index) {
+            return connected[index];
+        }
+
+        @Override
+        public boolean isActive(int index) {
+            queries++;
+            return connected[index] == playing;
+        }
+
+        @Override
+        public boolean isSwitching(int index) {
+            return connected[index] == switching;
+        }
+
+        @Override
+        public boolean setActive(int index) {
+            switches++;
+            if (reject) {
+                return false;
+            }
+            switchedTo = connected[index];
+            return true;
+        }
+    }
+
+    private long[] now;
+    private long[] localTime;
+    private RoutingMetrics metrics;
+    private RoutingCore core;
+
+    @Before
+    public void setUp() {
+        now = new long[]{0};
+        localTime = new long[]{MONDAY + 10 * HOUR};
+        metrics = new RoutingMetrics();
+        core = new RoutingCore(metrics, () -> now[0], () -> localTime[0]);
+        core.setPolicy(PriorityPolicy.compile(new long[]{A, B}));
+    }
+
+    @Test
+    public void switchesToTheBestRankedDeviceAndAssumesItActive() {
+        Stack stack = new Stack(C, B, A);
+
+        assertEquals(RoutingCore.SWITCHED, core.evaluate(stack));
+        assertEquals(A, stack.switchedTo);
+        assertEquals(A, core.getActiveDevice().getActive());
+        assertEquals(1, stack.queries);
+        assertEquals(1, metrics.get(RoutingMetrics.SWITCHES_ISSUED));
+
+        // the echo of the switch finds it already active without asking the stack
+        assertEquals(RoutingCore.ALREADY_ACTIVE, core.evaluate(stack));
+        assertEquals(1, stack.queries);
+        assertEquals(1, stack.switches);
+        assertEquals(1, metrics.get(RoutingMetrics.SWITCHES_SKIPPED_ACTIVE));
+    }
+
+    @Test
+    public void unrankedDevicesAreNoCandidate() {
+        Stack stack = new Stack(C);
+
+        assertEquals(RoutingCore.NO_CANDIDATE, core.evaluate(stack));
+        assertEquals(0, stack.switches);
+    }
+
+    @Test
+    public void reportedActiveDeviceSkipsTheQuery() {
+        core.getActiveDevice().onActiveDeviceChanged(A);
+        Stack stack = new Stack(A, B);
+
+        assertEquals(RoutingCore.ALREADY_ACTIVE, core.evaluate(stack));
+        assertEquals(0, stack.queries);
+        assertEquals(0, metrics.get(RoutingMetrics.ACTIVE_STATE_QUERIES));
+    }
+
+    @Test
+    public void unknownActiveDeviceIsQueried() {
+        Stack stack = new Stack(A, B);
+        stack.playing = A;
+
+        assertEquals(RoutingCore.ALREADY_ACTIVE, core.evaluate(stack));
+        assertEquals(1, stack.queries);
+        assertEquals(1, metrics.get(RoutingMetrics.ACTIVE_STATE_QUERIES));
+    }
+
+    @Test
+    public void rejectedSwitchLeavesTheTrackerAndFlapGuardAlone() {
+        Stack stack = new Stack(A, B);
+        stack.reject = true;
+
+        assertEquals(RoutingCore.SWITCH_FAILED, core.evaluate(stack));
+        assertEquals(ActiveDeviceTracker.UNKNOWN, core.getActiveDevice().getActive());
+        assertEquals(0, core.getFlapGuard().blockedUntil(A, now[0]));
+
+        stack.reject = false;
+        assertEquals(RoutingCore.SWITCHED, core.evaluate(stack));
+    }
+
+    @Test
+    public void switchingBackTooSoonIsSuppressedUntilRetryAt() {
+        Stack stack = new Stack(A, B);
+        assertEquals(RoutingCore.SWITCHED, core.evaluate(stack));
+
+        // something else took over right away
+        now[0] = 500;
+        core.getActiveDevice().onActiveDeviceChanged(B);
+        assertEquals(RoutingCore.SUPPRESSED, core.evaluate(stack));
+        assertEquals(A, core.getSuppressedDevice());
+        assertEquals(FlapGuard.DEFAULT_HYSTERESIS_MILLIS, core.getRetryAt());
+        assertEquals(1, stack.switches);
+
+        now[0] = core.getRetryAt();
+        assertEquals(RoutingCore.SWITCHED, core.evaluate(stack));
+        assertEquals(2, stack.switches);
+    }
+
+    @Test
+    public void pendingSwitchIsNotIssuedAgain() {
+        core.getActiveDevice().onActiveDeviceChanged(B);
+        Stack stack = new Stack(A, B);
+        stack.switching = A;
+
+        assertEquals(RoutingCore.SWITCH_PENDING, core.evaluate(stack));
+        assertEquals(RoutingCore.SWITCH_PENDING, core.evaluate(stack));
+        assertEquals(0, stack.switches);
+        assertEquals(0, metrics.get(RoutingMetrics.SWITCHES_ISSUED));
+        assertEquals(2, metrics.get(RoutingMetrics.SWITCHES_SKIPPED_ACTIVE));
+        assertEquals(0, core.getFlapGuard().blockedUntil(A, now[0]));
+    }
+
+    @Test
+    public void rulesPreferAndAvoidOverTheRanking() {
+        core.setRules(RoutingRules.compile("prefer AA:00:00:00:00:02 when hours 9-17\n"
+                + "avoid AA:00:00:00:00:01 when connected AA:00:00:00:00:03"));
+        Stack stack = new Stack(A, B);
+
+        assertEquals(RoutingCore.SWITCHED, core.evaluate(stack));
+        assertEquals(B, stack.switchedTo);
+
+        // out of hours the ranking decides, unless the avoid rule applies
+        localTime[0] = MONDAY + 20 * HOUR;
+        now[0] = 10_000;
+        core.getActiveDevice().invalidate();
+        Stack evening = new Stack(A, B);
+        assertEquals(RoutingCore.SWITCHED, core.evaluate(evening));
+        assertEquals(A, evening.switchedTo);
+
+        now[0] = 20_000;
+        core.getActiveDevice().invalidate();
+        Stack withC = new Stack(A, B, C);
+        assertEquals(RoutingCore.SWITCHED, core.evaluate(withC));
+        assertEquals(B, withC.switchedTo);
+    }
+}
@@ -0,0 +1,94 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RoutingJournalTest {
+
+    private static final long A = MacAddress.parse("AA:00:00:00:00:01");
+
+    private long now;
+    private RoutingJournal journal;
+
+    @Before
+    public void setUp() {
+        journal = new RoutingJournal(4, () -> now);
+    }
+
+    private List<String> lines() {
+        StringWriter out = new StringWriter();
+        journal.dump(new PrintWriter(out), "");
+        List<String> lines = new ArrayList<>();
+        for (String line : out.toString().split("\n")) {
+            // records are indented under the header
+            lines.add(line.trim());
+        }
+        // the header
+        lines.remove(0);
+        return lines;
+    }
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(4, journal.capacity());
+        assertEquals(8, new RoutingJournal(5, () -> 0).capacity());
+    }
+
+    @Test
+    public void recordsDecodeInOrder() {
+        now = 10;
+        journal.record(RoutingJournal.ROUTE_EVENT, MacAddress.INVALID);
+        now = 20;
+        journal.record(RoutingJournal.EVALUATION, MacAddress.INVALID, RoutingCore.SWITCHED);
+        journal.record(RoutingJournal.SWITCH_FAILED, A, SwitchTracker.Result.TIMED_OUT.ordinal());
+
+        List<String> lines = lines();
+        assertEquals(3, lines.size());
+        assertEquals("10 route_event", lines.get(0));
+        assertEquals("20 evaluation switched", lines.get(1));
+        assertEquals("20 switch_failed AA:00:00:00:00:01 TIMED_OUT", lines.get(2));
+    }
+
+    @Test
+    public void oldestRecordsAreOverwritten() {
+        for (int i = 0; i < 6; i++) {
+            now = i;
+            journal.record(RoutingJournal.CONNECTED, A);
+        }
+
+        List<String> lines = lines();
+        assertEquals(6, journal.getRecorded());
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).startsWith("2 "));
+        assertTrue(lines.get(3).startsWith("5 "));
+    }
+
+    @Test
+    public void savedJournalDecodesLikeTheDump() throws IOException {
+        now = 7;
+        journal.record(RoutingJournal.SWITCH_ISSUED, A);
+        journal.record(RoutingJournal.ROUTING_STATE, MacAddress.INVALID, 0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertEquals(2, journal.writeTo(bytes));
+
+        StringWriter decoded = new StringWriter();
+        RoutingJournal.decode(new ByteArrayInputStream(bytes.toByteArray()), new PrintWriter(decoded));
+        assertEquals(String.join("\n", lines()) + "\n", decoded.toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeRejectsOtherFiles() throws IOException {
+        RoutingJournal.decode(new ByteArrayInputStream(new byte[]{1, 2, 3, 4}), new PrintWriter(new StringWriter()));
+    }
+}
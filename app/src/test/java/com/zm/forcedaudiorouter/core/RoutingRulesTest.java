@@ -0,0 +1,152 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RoutingRulesTest {
+
+    private static final long CAR = MacAddress.parse("AA:00:00:00:00:01");
+    private static final long DESK = MacAddress.parse("AA:00:00:00:00:02");
+    private static final long DOCK = MacAddress.parse("AA:00:00:00:00:03");
+
+    // 2020-01-06 was a Monday
+    private static final long MONDAY = 18267L * 24 * 60 * 60 * 1000;
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private static final String WORK = "prefer AA:00:00:00:00:02 when connected AA:00:00:00:00:02 and hours 9-17 and days mon-fri\n"
+            + "# otherwise the car\n"
+            + "prefer AA:00:00:00:00:01\n"
+            + "avoid AA:00:00:00:00:02 when connected AA:00:00:00:00:03\n";
+
+    private static long preferred(RoutingRules rules, long local, long... connected) {
+        long present = 0;
+        for (long mac : connected) {
+            present |= rules.bitOf(mac);
+        }
+        int hour = RoutingRules.hourOf(local);
+        int day = RoutingRules.dayOf(local);
+        return rules.preferred(present, rules.avoided(present, hour, day), hour, day);
+    }
+
+    @Test
+    public void timeHelpersUseMondayFirst() {
+        assertEquals(0, RoutingRules.dayOf(MONDAY));
+        assertEquals(6, RoutingRules.dayOf(MONDAY - 1));
+        assertEquals(23, RoutingRules.hourOf(MONDAY - 1));
+        assertEquals(10, RoutingRules.hourOf(MONDAY + 10 * HOUR));
+    }
+
+    @Test
+    public void firstApplyingPreferRuleWins() {
+        RoutingRules rules = RoutingRules.compile(WORK);
+
+        assertEquals(3, rules.size());
+        assertEquals(3, rules.deviceCount());
+        assertEquals(DESK, preferred(rules, MONDAY + 10 * HOUR, CAR, DESK));
+        assertEquals(CAR, preferred(rules, MONDAY + 18 * HOUR, CAR, DESK));
+        assertEquals(CAR, preferred(rules, MONDAY + 5 * 24 * HOUR + 10 * HOUR, CAR, DESK));
+        assertEquals(CAR, preferred(rules, MONDAY + 10 * HOUR, CAR));
+    }
+
+    @Test
+    public void avoidedDeviceIsNeverPreferred() {
+        RoutingRules rules = RoutingRules.compile(WORK);
+
+        assertEquals(CAR, preferred(rules, MONDAY + 10 * HOUR, CAR, DESK, DOCK));
+        assertEquals(MacAddress.INVALID, preferred(rules, MONDAY + 10 * HOUR, DESK, DOCK));
+    }
+
+    @Test
+    public void hoursWrapPastMidnight() {
+        RoutingRules rules = RoutingRules.compile("prefer AA:00:00:00:00:01 when hours 22-6");
+
+        assertEquals(CAR, preferred(rules, MONDAY + 23 * HOUR, CAR));
+        assertEquals(CAR, preferred(rules, MONDAY + 5 * HOUR, CAR));
+        assertEquals(MacAddress.INVALID, preferred(rules, MONDAY + 6 * HOUR, CAR));
+    }
+
+    @Test
+    public void notConnectedCondition() {
+        RoutingRules rules = RoutingRules.compile("prefer aa:00:00:00:00:01 when not connected aa:00:00:00:00:02");
+
+        assertEquals(CAR, preferred(rules, MONDAY, CAR));
+        assertEquals(MacAddress.INVALID, preferred(rules, MONDAY, CAR, DESK));
+    }
+
+    @Test
+    public void errorsNameTheLine() {
+        try {
+            RoutingRules.compile("prefer AA:00:00:00:00:01\nprefer AA:00:00:00:00:01 when days funday");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("line 2:"));
+        }
+    }
+
+    @Test
+    public void blankRulesAreEmpty() {
+        assertTrue(RoutingRules.compile(" \n").isEmpty());
+        assertTrue(RoutingRules.compile(null).isEmpty());
+    }
+
+    @Test
+    public void coreFollowsRulesBeforePriorities() {
+        long[] connected = {DESK, CAR, DOCK};
+        int[] switched = {-1};
+        RoutingCore.AudioStack stack = new RoutingCore.AudioStack() {
+            @Override
+            public int connectedCount() {
+                return connected.length;
+            }
+
+            @Override
+            public long connectedMac(int index) {
+                return connected[index];
+            }
+
+            @Override
+            public boolean isActive(int index) {
+                return false;
+            }
+
+            @Override
+            public boolean isSwitching(int index) {
+                return false;
+            }
+
+            @Override
+            public boolean setActive(int index) {
+                switched[0] = index;
+                return true;
+            }
+        };
+        RoutingCore core = new RoutingCore(new RoutingMetrics(), () -> 0, () -> MONDAY + 10 * HOUR);
+        core.setPolicy(PriorityPolicy.compile(new long[]{DESK, CAR}));
+        core.setRules(RoutingRules.compile("avoid AA:00:00:00:00:02 when connected AA:00:00:00:00:03"));
+
+        assertEquals(RoutingCore.SWITCHED, core.evaluate(stack));
+        assertEquals(1, switched[0]);
+    }
+
+    @Test
+    public void localClockFollowsTheDefaultZone() {
+        TimeZone saved = TimeZone.getDefault();
+        try {
+            LongSupplier clock = RoutingRules.localClock();
+            TimeZone.setDefault(TimeZone.getTimeZone("GMT+05:00"));
+            long east = clock.getAsLong() - System.currentTimeMillis();
+            TimeZone.setDefault(TimeZone.getTimeZone("GMT-03:00"));
+            long west = clock.getAsLong() - System.currentTimeMillis();
+
+            assertEquals(8 * HOUR, east - west, 1000);
+        } finally {
+            TimeZone.setDefault(saved);
+        }
+    }
+}
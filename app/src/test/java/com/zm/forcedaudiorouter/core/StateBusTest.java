@@ -0,0 +1,64 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StateBusTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    @Test
+    public void lateSubscriberGetsTheLatestState() {
+        StateBus<String> bus = new StateBus<>();
+        bus.publish("a");
+        bus.publish("b");
+
+        List<String> seen = new ArrayList<>();
+        Consumer<String> listener = seen::add;
+        bus.subscribe(DIRECT, listener);
+
+        assertEquals(1, seen.size());
+        assertEquals("b", seen.get(0));
+    }
+
+    @Test
+    public void deliversOnTheChosenExecutor() {
+        StateBus<String> bus = new StateBus<>();
+        ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        List<String> seen = new ArrayList<>();
+        Consumer<String> listener = seen::add;
+        bus.subscribe(queue::add, listener);
+
+        bus.publish("a");
+        assertTrue(seen.isEmpty());
+        queue.poll().run();
+        assertEquals("a", seen.get(0));
+    }
+
+    @Test
+    public void closedSubscriptionGetsNothingMore() {
+        StateBus<String> bus = new StateBus<>();
+        ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        List<String> seen = new ArrayList<>();
+        Consumer<String> listener = seen::add;
+        StateBus<String>.Subscription subscription = bus.subscribe(queue::add, listener);
+
+        bus.publish("a");
+        subscription.close();
+        bus.publish("b");
+        while (!queue.isEmpty()) {
+            queue.poll().run();
+        }
+
+        assertTrue(seen.isEmpty());
+        assertEquals(0, bus.size());
+    }
+}
@@ -0,0 +1,124 @@
+package com.zm.forcedaudiorouter.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SwitchTrackerTest {
+
+    private static final long A = 0x001B66000001L;
+    private static final long B = 0x001B66000002L;
+
+    private static final class FakeStack implements SwitchTracker.Stack {
+        long active = MacAddress.INVALID;
+        int issued;
+        // attempts the stack silently drops before one takes effect
+        int drops;
+        SwitchTracker.Result result = SwitchTracker.Result.ACCEPTED;
+
+        @Override
+        public SwitchTracker.Result issue(long mac) {
+            issued++;
+            if (result == SwitchTracker.Result.ACCEPTED && drops-- <= 0) {
+                active = mac;
+            }
+            return result;
+        }
+
+        @Override
+        public long readActive() {
+            return active;
+        }
+    }
+
+    private FakeScheduler scheduler;
+    private FakeStack stack;
+    private RoutingMetrics metrics;
+    private List<SwitchTracker.Result> finished;
+    private SwitchTracker tracker;
+    private boolean listenerHeldLock;
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        stack = new FakeStack();
+        metrics = new RoutingMetrics();
+        finished = new ArrayList<>();
+        tracker = new SwitchTracker(scheduler, stack, metrics,
+                (target, result, readBack) -> {
+                    finished.add(result);
+                    listenerHeldLock |= Thread.holdsLock(tracker);
+                }, 100, 400, 1000, 4);
+    }
+
+    @Test
+    public void broadcastConfirmsWithoutReissuing() {
+        assertTrue(tracker.start(A));
+        scheduler.advanceTo(40);
+        tracker.onActiveReported(A);
+
+        assertEquals(1, stack.issued);
+        assertEquals(SwitchTracker.Result.CONFIRMED, finished.get(0));
+        assertEquals(40, metrics.switchToConfirmed.getMax());
+        assertFalse(tracker.isPending());
+    }
+
+    @Test
+    public void droppedAttemptIsRetriedUntilConfirmed() {
+        stack.drops = 2;
+        tracker.start(A);
+        scheduler.advanceTo(100); // not active yet, retry and check after 200
+        scheduler.advanceTo(300); // still dropped, retry after 400
+        scheduler.advanceTo(700);
+
+        assertEquals(3, stack.issued);
+        assertEquals(2, metrics.get(RoutingMetrics.SWITCH_RETRIES));
+        assertEquals(SwitchTracker.Result.CONFIRMED, finished.get(0));
+        assertEquals(700, metrics.switchToConfirmed.getMax());
+    }
+
+    @Test
+    public void givesUpAfterTheAttemptsRunOut() {
+        stack.drops = 100;
+        tracker.start(A);
+        scheduler.advanceTo(10_000);
+
+        assertEquals(4, stack.issued);
+        assertEquals(SwitchTracker.Result.TIMED_OUT, finished.get(0));
+        assertEquals(1, tracker.getResultCount(SwitchTracker.Result.TIMED_OUT));
+        assertEquals(1, metrics.get(RoutingMetrics.SWITCHES_FAILED));
+        assertFalse(listenerHeldLock);
+    }
+
+    @Test
+    public void unavailableFailsWithoutRetry() {
+        stack.result = SwitchTracker.Result.UNAVAILABLE;
+        assertFalse(tracker.start(A));
+        scheduler.advanceTo(10_000);
+
+        assertEquals(1, stack.issued);
+        assertEquals(SwitchTracker.Result.UNAVAILABLE, finished.get(0));
+    }
+
+    @Test
+    public void sameTargetIsNotReissuedAndAnotherSupersedes() {
+        stack.drops = 100;
+        tracker.start(A);
+        tracker.start(A);
+        assertEquals(1, stack.issued);
+
+        tracker.start(B);
+        assertEquals(2, stack.issued);
+        assertEquals(SwitchTracker.Result.SUPERSEDED, finished.get(0));
+        assertEquals(1, metrics.get(RoutingMetrics.SWITCHES_SUPERSEDED));
+        assertEquals(0, metrics.get(RoutingMetrics.SWITCHES_FAILED));
+        assertFalse(listenerHeldLock);
+        assertTrue(tracker.isPending());
+    }
+}
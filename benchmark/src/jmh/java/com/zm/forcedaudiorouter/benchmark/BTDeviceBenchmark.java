@@ -0,0 +1,63 @@
+package com.zm.forcedaudiorouter.benchmark;
+
+import com.zm.forcedaudiorouter.core.BTDevice;
+import com.zm.forcedaudiorouter.core.MacAddress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+public class BTDeviceBenchmark {
+
+    private String serialized;
+    private String address;
+    private BTDevice device;
+    private BTDevice sameDevice;
+    private BTDevice otherDevice;
+
+    @Setup
+    public void setUp() {
+        serialized = "00:0A:9B:83:80:72|Car Kit";
+        address = "00:0A:9B:83:80:72";
+        device = new BTDevice(serialized);
+        sameDevice = new BTDevice("Car Kit", "00:0a:9b:83:80:72");
+        otherDevice = new BTDevice("Desk", "AA:BB:CC:DD:EE:FF");
+    }
+
+    @Benchmark
+    public BTDevice parseSerialized() {
+        return new BTDevice(serialized);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return device.serialize();
+    }
+
+    @Benchmark
+    public long parseMac() {
+        return MacAddress.parse(address);
+    }
+
+    @Benchmark
+    public String formatMac() {
+        return MacAddress.format(device.mac);
+    }
+
+    @Benchmark
+    public boolean equalsSame() {
+        return device.equals(sameDevice);
+    }
+
+    @Benchmark
+    public boolean equalsOther() {
+        return device.equals(otherDevice);
+    }
+
+    @Benchmark
+    public int hashCodeDevice() {
+        return device.hashCode();
+    }
+}
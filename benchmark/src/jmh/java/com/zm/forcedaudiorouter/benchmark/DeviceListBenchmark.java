@@ -0,0 +1,43 @@
+package com.zm.forcedaudiorouter.benchmark;
+
+import com.zm.forcedaudiorouter.core.BTDevice;
+import com.zm.forcedaudiorouter.core.DeviceLists;
+import com.zm.forcedaudiorouter.core.MacAddress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/** The sort-and-dedupe behind the device picker refresh. */
+@State(Scope.Thread)
+public class DeviceListBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int devices;
+
+    private List<BTDevice> scanned;
+
+    @Setup
+    public void setUp() {
+        scanned = new ArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i < devices; i++) {
+            scanned.add(new BTDevice("Device " + random.nextInt(devices), MacAddress.format(0x001122000000L + i)));
+        }
+        // scans report some devices more than once
+        scanned.addAll(scanned.subList(0, devices / 10));
+        Collections.shuffle(scanned, random);
+    }
+
+    @Benchmark
+    public List<BTDevice> sortedUnique() {
+        return DeviceLists.sortedUnique(scanned);
+    }
+}
@@ -0,0 +1,112 @@
+package com.zm.forcedaudiorouter.benchmark;
+
+import com.zm.forcedaudiorouter.core.MacAddress;
+import com.zm.forcedaudiorouter.core.PriorityPolicy;
+import com.zm.forcedaudiorouter.core.RoutingCore;
+import com.zm.forcedaudiorouter.core.RoutingMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picking the best ranked device among N connected ones with {@link RoutingCore#evaluate}, as
+ * RoutingEngine does on every evaluation, against the map-then-walk approach it replaced. The
+ * best device is already active, so each evaluation is the common no-op.
+ */
+@State(Scope.Thread)
+public class PrioritySelectionBenchmark {
+
+    private static final class ConnectedStack implements RoutingCore.AudioStack {
+        final long[] macs;
+
+        ConnectedStack(long[] macs) {
+            this.macs = macs;
+        }
+
+        @Override
+        public int connectedCount() {
+            return macs.length;
+        }
+
+        @Override
+        public long connectedMac(int index) {
+            return macs[index];
+        }
+
+        @Override
+        public boolean isActive(int index) {
+            return false;
+        }
+
+        @Override
+        public boolean isSwitching(int index) {
+            return false;
+        }
+
+        @Override
+        public boolean setActive(int index) {
+            return true;
+        }
+    }
+
+    @Param({"1", "4", "16"})
+    public int connected;
+
+    private List<String> connectedAddresses;
+    private List<String> priorityAddresses;
+    private RoutingCore core;
+    private ConnectedStack stack;
+
+    @Setup
+    public void setUp() {
+        connectedAddresses = new ArrayList<>();
+        for (int i = 0; i < connected; i++) {
+            connectedAddresses.add(MacAddress.format(0x001122330000L + i * 7));
+        }
+        // the lowest priority entry is the last connected device, so the whole list is ranked
+        long[] macs = new long[8];
+        priorityAddresses = new ArrayList<>();
+        for (int i = 0; i < macs.length; i++) {
+            macs[i] = 0x00AABB000000L + i;
+            priorityAddresses.add(MacAddress.format(macs[i]));
+        }
+        macs[macs.length - 1] = MacAddress.parse(connectedAddresses.get(connected - 1));
+        priorityAddresses.set(macs.length - 1, connectedAddresses.get(connected - 1));
+        core = new RoutingCore(new RoutingMetrics());
+        core.setPolicy(PriorityPolicy.compile(macs));
+        long[] connectedMacs = new long[connected];
+        for (int i = 0; i < connected; i++) {
+            connectedMacs[i] = MacAddress.parse(connectedAddresses.get(i));
+        }
+        stack = new ConnectedStack(connectedMacs);
+        core.getActiveDevice().onActiveDeviceChanged(macs[macs.length - 1]);
+    }
+
+    @Benchmark
+    public int routingCoreEvaluate() {
+        return core.evaluate(stack);
+    }
+
+    @Benchmark
+    public String legacyMapThenWalk() {
+        Map<String, String> devicesByAddress = new HashMap<>();
+        for (String address : connectedAddresses) {
+            devicesByAddress.put(address, address);
+        }
+        for (String address : priorityAddresses) {
+            String d = devicesByAddress.get(address);
+            if (d != null) {
+                return d;
+            }
+        }
+        return null;
+    }
+}
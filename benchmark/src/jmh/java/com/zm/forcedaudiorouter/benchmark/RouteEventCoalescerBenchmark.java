@@ -0,0 +1,64 @@
+package com.zm.forcedaudiorouter.benchmark;
+
+import com.zm.forcedaudiorouter.core.RouteEventCoalescer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-event cost of the coalescer during a storm: one evaluation for every 16 events, with a
+ * scheduler that only keeps track of the single pending task.
+ */
+@State(Scope.Thread)
+public class RouteEventCoalescerBenchmark {
+
+    // not the tests' FakeScheduler: that one is package private in the test sources, which this
+    // module does not build, and its advanceTo would add its own loop to the measured time
+    private static final class ManualScheduler implements RouteEventCoalescer.Scheduler {
+        long now;
+        Runnable task;
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            this.task = task;
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            this.task = null;
+        }
+    }
+
+    private ManualScheduler scheduler;
+    private RouteEventCoalescer coalescer;
+    private long evaluations;
+
+    @Setup
+    public void setUp() {
+        scheduler = new ManualScheduler();
+        coalescer = new RouteEventCoalescer(scheduler, (first, events) -> evaluations++);
+        coalescer.setWindow(100, 500);
+    }
+
+    @Benchmark
+    public long eventBurst() {
+        for (int i = 0; i < 16; i++) {
+            scheduler.now += 5;
+            coalescer.onEvent();
+        }
+        scheduler.now += 1000;
+        Runnable task = scheduler.task;
+        scheduler.task = null;
+        if (task != null) {
+            task.run();
+        }
+        return evaluations;
+    }
+}
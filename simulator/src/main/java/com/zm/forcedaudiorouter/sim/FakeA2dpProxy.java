@@ -0,0 +1,145 @@
+package com.zm.forcedaudiorouter.sim;
+
+import com.zm.forcedaudiorouter.core.MacAddress;
+import com.zm.forcedaudiorouter.core.RoutingCore;
+
+/**
+ * Stands in for the BluetoothA2dp proxy. Like the real stack, a newly connected sink becomes the
+ * active one, and when the active sink goes away the most recently connected remaining sink
+ * takes over. Every change of the active sink is echoed as a route change.
+ */
+public final class FakeA2dpProxy implements RoutingCore.AudioStack {
+
+    /** Told about every change of the active sink. */
+    public interface ActiveListener {
+        void onActiveChanged(long previous, long next, boolean byRouter);
+    }
+
+    private final FakeMediaRouter router;
+
+    private long[] connected = new long[4];
+    private int count;
+    private long active = MacAddress.INVALID;
+    private boolean streaming;
+    private ActiveListener listener;
+
+    private long switchRequests;
+    private boolean rejectSwitches;
+
+    FakeA2dpProxy(FakeMediaRouter router) {
+        this.router = router;
+    }
+
+    public void setActiveListener(ActiveListener listener) {
+        this.listener = listener;
+    }
+
+    /** Makes setActiveDevice fail, as it does when the hidden API is blocked. */
+    public void setRejectSwitches(boolean reject) {
+        this.rejectSwitches = reject;
+    }
+
+    public long getSwitchRequests() {
+        return switchRequests;
+    }
+
+    public long getActiveDevice() {
+        return active;
+    }
+
+    public boolean isConnected(long mac) {
+        return indexOf(mac) >= 0;
+    }
+
+    /** Playing means audio is streaming and the sink is the active one. */
+    public boolean isA2dpPlaying(long mac) {
+        return streaming && mac == active;
+    }
+
+    void connect(long mac) {
+        if (indexOf(mac) >= 0) {
+            return;
+        }
+        if (count == connected.length) {
+            long[] grown = new long[count * 2];
+            System.arraycopy(connected, 0, grown, 0, count);
+            connected = grown;
+        }
+        connected[count++] = mac;
+        changeActive(mac, false);
+    }
+
+    void disconnect(long mac) {
+        int i = indexOf(mac);
+        if (i < 0) {
+            return;
+        }
+        System.arraycopy(connected, i + 1, connected, i, count - i - 1);
+        count--;
+        if (mac == active) {
+            changeActive(count == 0 ? MacAddress.INVALID : connected[count - 1], false);
+        } else {
+            router.dispatchRouteChanged();
+        }
+    }
+
+    void forceActive(long mac) {
+        if (indexOf(mac) >= 0) {
+            changeActive(mac, false);
+        }
+    }
+
+    void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    private int indexOf(long mac) {
+        for (int i = 0; i < count; i++) {
+            if (connected[i] == mac) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void changeActive(long mac, boolean byRouter) {
+        long previous = active;
+        active = mac;
+        if (listener != null && previous != mac) {
+            listener.onActiveChanged(previous, mac, byRouter);
+        }
+        router.dispatchRouteChanged();
+    }
+
+    @Override
+    public int connectedCount() {
+        return count;
+    }
+
+    @Override
+    public long connectedMac(int index) {
+        return connected[index];
+    }
+
+    @Override
+    public boolean isActive(int index) {
+        // same check the app makes against the real proxy
+        return isA2dpPlaying(connected[index]);
+    }
+
+    @Override
+    public boolean isSwitching(int index) {
+        // switches take effect at once
+        return false;
+    }
+
+    @Override
+    public boolean setActive(int index) {
+        switchRequests++;
+        if (rejectSwitches) {
+            return false;
+        }
+        changeActive(connected[index], true);
+        return true;
+    }
+}
@@ -0,0 +1,35 @@
+package com.zm.forcedaudiorouter.sim;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Stands in for the BluetoothAdapter: knows the paired sinks and hands out the A2DP proxy. */
+public final class FakeBluetoothAdapter {
+
+    private final Map<Long, String> bonded = new HashMap<>();
+    private final FakeA2dpProxy a2dp;
+
+    public FakeBluetoothAdapter(FakeMediaRouter router) {
+        this.a2dp = new FakeA2dpProxy(router);
+    }
+
+    public FakeA2dpProxy getA2dpProxy() {
+        return a2dp;
+    }
+
+    public Map<Long, String> getBondedDevices() {
+        return bonded;
+    }
+
+    /** Pairs the sink if needed and connects it. */
+    public void connect(long mac, String name) {
+        if (name != null || !bonded.containsKey(mac)) {
+            bonded.put(mac, name == null ? "" : name);
+        }
+        a2dp.connect(mac);
+    }
+
+    public void disconnect(long mac) {
+        a2dp.disconnect(mac);
+    }
+}
@@ -0,0 +1,30 @@
+package com.zm.forcedaudiorouter.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Stands in for MediaRouter: callbacks get one call per reported route change. */
+public final class FakeMediaRouter {
+
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private long routeChanges;
+
+    public void addCallback(Runnable callback) {
+        callbacks.add(callback);
+    }
+
+    public void removeCallback(Runnable callback) {
+        callbacks.remove(callback);
+    }
+
+    public void dispatchRouteChanged() {
+        routeChanges++;
+        for (int i = 0; i < callbacks.size(); i++) {
+            callbacks.get(i).run();
+        }
+    }
+
+    public long getRouteChanges() {
+        return routeChanges;
+    }
+}
@@ -0,0 +1,152 @@
+package com.zm.forcedaudiorouter.sim;
+
+import com.zm.forcedaudiorouter.core.FlapGuard;
+import com.zm.forcedaudiorouter.core.LongMap;
+import com.zm.forcedaudiorouter.core.MacAddress;
+import com.zm.forcedaudiorouter.core.PriorityPolicy;
+import com.zm.forcedaudiorouter.core.RouteEventCoalescer;
+import com.zm.forcedaudiorouter.core.RoutingCore;
+import com.zm.forcedaudiorouter.core.RoutingMetrics;
+
+/**
+ * The routing engine wired the way the app wires it, but against the fake adapter and router and
+ * a virtual clock: route callbacks feed the coalescer, which runs the routing core.
+ */
+public final class SimulatedRouter {
+
+    /** How soon a sink must win back the active slot for the change to count as a flap. */
+    public static final long DEFAULT_FLAP_WINDOW_MILLIS = 1000;
+
+    private final VirtualClock clock = new VirtualClock();
+    private final FakeMediaRouter router = new FakeMediaRouter();
+    private final FakeBluetoothAdapter adapter = new FakeBluetoothAdapter(router);
+    private final RoutingMetrics metrics = new RoutingMetrics();
+    private final RoutingCore core = new RoutingCore(metrics, clock::now);
+    private final RouteEventCoalescer routeEvents;
+    // the engine's wake-up once a held back switch is allowed
+    private final Runnable retrySuppressed;
+
+    private final long flapWindowMillis;
+    private final LongMap<Long> displacedAt = new LongMap<>();
+    private long activeChanges;
+    private long routerSwitches;
+    private long flaps;
+
+    public SimulatedRouter(long[] priority) {
+        this(priority, DEFAULT_FLAP_WINDOW_MILLIS);
+    }
+
+    public SimulatedRouter(long[] priority, long flapWindowMillis) {
+        this.flapWindowMillis = flapWindowMillis;
+        core.setPolicy(PriorityPolicy.compile(priority));
+        routeEvents = new RouteEventCoalescer(clock, (firstEventAt, events) -> {
+            metrics.add(RoutingMetrics.EVENTS_COALESCED, events - 1);
+            evaluate(firstEventAt);
+        });
+        retrySuppressed = () -> evaluate(clock.now());
+        router.addCallback(() -> {
+            metrics.increment(RoutingMetrics.EVENTS_RECEIVED);
+            routeEvents.onEvent();
+        });
+        adapter.getA2dpProxy().setActiveListener(this::onActiveChanged);
+    }
+
+    private void evaluate(long triggeredAt) {
+        int outcome = core.evaluate(adapter.getA2dpProxy());
+        if (outcome == RoutingCore.SWITCHED) {
+            metrics.eventToSwitch.record(clock.now() - triggeredAt);
+        } else if (outcome == RoutingCore.SUPPRESSED) {
+            clock.cancel(retrySuppressed);
+            clock.schedule(retrySuppressed, core.getRetryAt() - clock.now());
+        }
+    }
+
+    private void onActiveChanged(long previous, long next, boolean byRouter) {
+        // the active device changed broadcast
+        core.getActiveDevice().onActiveDeviceChanged(next);
+        long now = clock.now();
+        activeChanges++;
+        if (byRouter) {
+            routerSwitches++;
+        }
+        Long lost = displacedAt.get(next);
+        if (lost != null && now - lost <= flapWindowMillis) {
+            flaps++;
+        }
+        displacedAt.put(previous, now);
+    }
+
+    /** Advances the clock to the event and applies it. */
+    public void apply(TraceEvent event) {
+        clock.advanceTo(event.time);
+        switch (event.type) {
+            case CONNECT:
+                adapter.connect(event.mac, event.name);
+                break;
+            case DISCONNECT:
+                adapter.disconnect(event.mac);
+                break;
+            case ROUTE_CHANGE:
+                router.dispatchRouteChanged();
+                break;
+            case PLAYING:
+            case STOPPED:
+                setStreaming(event.type == TraceEvent.Type.PLAYING);
+                break;
+            case FORCE_ACTIVE:
+                adapter.getA2dpProxy().forceActive(event.mac);
+                break;
+        }
+    }
+
+    private void setStreaming(boolean streaming) {
+        FakeA2dpProxy a2dp = adapter.getA2dpProxy();
+        a2dp.setStreaming(streaming);
+        // the playing state changed broadcast, which only the active device sends
+        long active = a2dp.getActiveDevice();
+        if (active != MacAddress.INVALID) {
+            core.getActiveDevice().onPlayingStateChanged(active, streaming);
+        }
+    }
+
+    /** Runs whatever evaluation is still pending. */
+    public void finish() {
+        clock.drain();
+    }
+
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    public FakeBluetoothAdapter getAdapter() {
+        return adapter;
+    }
+
+    public FakeMediaRouter getRouter() {
+        return router;
+    }
+
+    public RoutingMetrics getMetrics() {
+        return metrics;
+    }
+
+    public FlapGuard getFlapGuard() {
+        return core.getFlapGuard();
+    }
+
+    public RouteEventCoalescer getRouteEvents() {
+        return routeEvents;
+    }
+
+    public long getActiveChanges() {
+        return activeChanges;
+    }
+
+    public long getRouterSwitches() {
+        return routerSwitches;
+    }
+
+    public long getFlaps() {
+        return flaps;
+    }
+}
@@ -0,0 +1,88 @@
+package com.zm.forcedaudiorouter.sim;
+
+import com.zm.forcedaudiorouter.core.RoutingJournal;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+
+/**
+ * Command line entry point.
+ *
+ * <pre>
+ * replay &lt;trace file&gt; [speed]
+ * storm &lt;sinks&gt; &lt;period ms&gt; &lt;duration ms&gt; [speed]
+ * contention &lt;period ms&gt; &lt;duration ms&gt; [speed]
+ * generate storm|contention &lt;args...&gt;     writes the trace to stdout
+ * journal &lt;journal.bin&gt;                    decodes a journal saved on the device
+ * </pre>
+ */
+public final class Simulator {
+
+    private Simulator() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            usage();
+            return;
+        }
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out));
+        switch (args[0]) {
+            case "replay": {
+                Trace trace;
+                try (Reader in = new FileReader(args[1])) {
+                    trace = Trace.read(in);
+                }
+                new TraceRunner(speed(args, 2)).run(trace).print(out);
+                break;
+            }
+            case "storm":
+                new TraceRunner(speed(args, 4)).run(storm(args, 1)).print(out);
+                break;
+            case "contention":
+                new TraceRunner(speed(args, 3)).run(contention(args, 1)).print(out);
+                break;
+            case "generate":
+                if (args[1].equals("storm")) {
+                    storm(args, 2).write(out);
+                } else {
+                    contention(args, 2).write(out);
+                }
+                break;
+            case "journal":
+                try (InputStream in = new BufferedInputStream(new FileInputStream(args[1]))) {
+                    RoutingJournal.decode(in, out);
+                }
+                break;
+            default:
+                usage();
+        }
+    }
+
+    private static Trace storm(String[] args, int from) {
+        return TraceGenerator.storm(Integer.parseInt(args[from]),
+                Long.parseLong(args[from + 1]), Long.parseLong(args[from + 2]));
+    }
+
+    private static Trace contention(String[] args, int from) {
+        return TraceGenerator.contention(Long.parseLong(args[from]), Long.parseLong(args[from + 1]));
+    }
+
+    private static double speed(String[] args, int index) {
+        return args.length > index ? Double.parseDouble(args[index]) : 0;
+    }
+
+    private static void usage() {
+        System.err.println("usage: replay <trace> [speed]");
+        System.err.println("       storm <sinks> <period ms> <duration ms> [speed]");
+        System.err.println("       contention <period ms> <duration ms> [speed]");
+        System.err.println("       generate storm|contention <args...>");
+        System.err.println("       journal <journal.bin>");
+    }
+}
@@ -0,0 +1,122 @@
+package com.zm.forcedaudiorouter.sim;
+
+import com.zm.forcedaudiorouter.core.MacAddress;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A recorded routing scenario. The text format is one entry per line:
+ *
+ * <pre>
+ * # comment
+ * priority AA:BB:CC:DD:EE:01 AA:BB:CC:DD:EE:02
+ * 0 CONNECT AA:BB:CC:DD:EE:02 Desk Speaker
+ * 120 ROUTE_CHANGE
+ * 400 PLAYING AA:BB:CC:DD:EE:02
+ * 900 FORCE_ACTIVE AA:BB:CC:DD:EE:01
+ * </pre>
+ *
+ * Times are milliseconds from the start of the trace and must not go backwards.
+ */
+public final class Trace {
+
+    private final long[] priority;
+    private final List<TraceEvent> events;
+
+    public Trace(long[] priority, List<TraceEvent> events) {
+        this.priority = priority.clone();
+        this.events = Collections.unmodifiableList(new ArrayList<>(events));
+    }
+
+    public long[] getPriority() {
+        return priority.clone();
+    }
+
+    public List<TraceEvent> getEvents() {
+        return events;
+    }
+
+    public long getDuration() {
+        return events.isEmpty() ? 0 : events.get(events.size() - 1).time;
+    }
+
+    public static Trace read(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        long[] priority = new long[0];
+        List<TraceEvent> events = new ArrayList<>();
+        long lastTime = 0;
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+", 4);
+            if (parts[0].equals("priority")) {
+                String[] macs = line.substring("priority".length()).trim().split("\\s+");
+                priority = new long[macs.length];
+                for (int i = 0; i < macs.length; i++) {
+                    priority[i] = parseMac(macs[i], lineNumber);
+                }
+                continue;
+            }
+            if (parts.length < 2) {
+                throw new IOException("line " + lineNumber + ": expected '<time> <event> [mac] [name]'");
+            }
+            long time;
+            TraceEvent.Type type;
+            try {
+                time = Long.parseLong(parts[0]);
+                type = TraceEvent.Type.valueOf(parts[1]);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("line " + lineNumber + ": " + e.getMessage());
+            }
+            if (time < lastTime) {
+                throw new IOException("line " + lineNumber + ": time goes backwards");
+            }
+            lastTime = time;
+            if (type == TraceEvent.Type.ROUTE_CHANGE) {
+                events.add(new TraceEvent(time, type, MacAddress.INVALID));
+            } else {
+                if (parts.length < 3) {
+                    throw new IOException("line " + lineNumber + ": " + type + " needs a mac");
+                }
+                events.add(new TraceEvent(time, type, parseMac(parts[2], lineNumber),
+                        parts.length > 3 ? parts[3] : null));
+            }
+        }
+        return new Trace(priority, events);
+    }
+
+    private static long parseMac(String s, int lineNumber) throws IOException {
+        long mac = MacAddress.parse(s);
+        if (mac == MacAddress.INVALID) {
+            throw new IOException("line " + lineNumber + ": bad mac " + s);
+        }
+        return mac;
+    }
+
+    public void write(Writer out) throws IOException {
+        if (priority.length > 0) {
+            out.write("priority");
+            for (long mac : priority) {
+                out.write(' ');
+                out.write(MacAddress.format(mac));
+            }
+            out.write('\n');
+        }
+        for (TraceEvent event : events) {
+            out.write(event.toString());
+            out.write('\n');
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,51 @@
+package com.zm.forcedaudiorouter.sim;
+
+import com.zm.forcedaudiorouter.core.MacAddress;
+
+/** One line of a trace: something the bluetooth stack or media router reported. */
+public final class TraceEvent {
+
+    public enum Type {
+        /** A sink connected. */
+        CONNECT,
+        /** A sink disconnected. */
+        DISCONNECT,
+        /** The media router reported a route change with no stack change behind it. */
+        ROUTE_CHANGE,
+        /** A sink started playing. */
+        PLAYING,
+        /** A sink stopped playing. */
+        STOPPED,
+        /** Something other than the router made a sink active. */
+        FORCE_ACTIVE
+    }
+
+    public final long time;
+    public final Type type;
+    public final long mac;
+    public final String name;
+
+    public TraceEvent(long time, Type type, long mac, String name) {
+        this.time = time;
+        this.type = type;
+        this.mac = mac;
+        this.name = name;
+    }
+
+    public TraceEvent(long time, Type type, long mac) {
+        this(time, type, mac, null);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(time).append(' ').append(type);
+        if (type != Type.ROUTE_CHANGE) {
+            sb.append(' ').append(MacAddress.format(mac));
+        }
+        if (name != null) {
+            sb.append(' ').append(name);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,60 @@
+package com.zm.forcedaudiorouter.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Builds synthetic traces for load testing. */
+public final class TraceGenerator {
+
+    private static final long SINK_BASE = 0x02AA00000000L;
+
+    private TraceGenerator() {
+    }
+
+    public static long sinkMac(int index) {
+        return SINK_BASE + index;
+    }
+
+    /**
+     * All sinks connect and audio starts playing, then every period the next sink in turn drops
+     * and reconnects half a period later, each change followed by the route change echo the media
+     * router sends. The priority list ranks the sinks in index order.
+     */
+    public static Trace storm(int sinks, long periodMillis, long durationMillis) {
+        long[] priority = new long[sinks];
+        List<TraceEvent> events = new ArrayList<>();
+        for (int i = 0; i < sinks; i++) {
+            priority[i] = sinkMac(i);
+            events.add(new TraceEvent(0, TraceEvent.Type.CONNECT, priority[i], "Sink" + i));
+        }
+        events.add(new TraceEvent(0, TraceEvent.Type.PLAYING, priority[0]));
+        long echo = Math.max(1, periodMillis / 10);
+        int next = 0;
+        for (long t = periodMillis; t + periodMillis / 2 + echo <= durationMillis; t += periodMillis) {
+            long mac = priority[next];
+            events.add(new TraceEvent(t, TraceEvent.Type.DISCONNECT, mac));
+            events.add(new TraceEvent(t + echo, TraceEvent.Type.ROUTE_CHANGE, 0));
+            events.add(new TraceEvent(t + periodMillis / 2, TraceEvent.Type.CONNECT, mac));
+            events.add(new TraceEvent(t + periodMillis / 2 + echo, TraceEvent.Type.ROUTE_CHANGE, 0));
+            next = (next + 1) % sinks;
+        }
+        return new Trace(priority, events);
+    }
+
+    /**
+     * Two sinks stay connected while something outside the router keeps moving audio to the
+     * lower priority one.
+     */
+    public static Trace contention(long periodMillis, long durationMillis) {
+        long preferred = sinkMac(0);
+        long other = sinkMac(1);
+        List<TraceEvent> events = new ArrayList<>();
+        events.add(new TraceEvent(0, TraceEvent.Type.CONNECT, preferred, "Preferred"));
+        events.add(new TraceEvent(0, TraceEvent.Type.CONNECT, other, "Other"));
+        events.add(new TraceEvent(0, TraceEvent.Type.PLAYING, other));
+        for (long t = periodMillis; t <= durationMillis; t += periodMillis) {
+            events.add(new TraceEvent(t, TraceEvent.Type.FORCE_ACTIVE, other));
+        }
+        return new Trace(new long[]{preferred, other}, events);
+    }
+}
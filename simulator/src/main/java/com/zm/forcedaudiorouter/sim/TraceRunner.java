@@ -0,0 +1,101 @@
+package com.zm.forcedaudiorouter.sim;
+
+import com.zm.forcedaudiorouter.core.RoutingMetrics;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a trace through a {@link SimulatedRouter}. The simulation runs on virtual time, so the
+ * outcome does not depend on the speed: a speed of 1 paces events in real time, 10 runs ten
+ * times faster, and 0 runs as fast as possible.
+ */
+public final class TraceRunner {
+
+    public static final class Report {
+        public final long traceEvents;
+        public final long simulatedMillis;
+        public final long wallNanos;
+        public final long routeEvents;
+        public final long evaluations;
+        public final long switchesIssued;
+        public final long switchesSkipped;
+        public final long switchesSuppressed;
+        public final long activeStateQueries;
+        public final long routerSwitches;
+        public final long activeChanges;
+        public final long flaps;
+        final RoutingMetrics metrics;
+
+        Report(long traceEvents, long wallNanos, SimulatedRouter router) {
+            this.traceEvents = traceEvents;
+            this.simulatedMillis = router.getClock().now();
+            this.wallNanos = wallNanos;
+            this.metrics = router.getMetrics();
+            this.routeEvents = metrics.get(RoutingMetrics.EVENTS_RECEIVED);
+            this.evaluations = metrics.get(RoutingMetrics.EVALUATIONS);
+            this.switchesIssued = metrics.get(RoutingMetrics.SWITCHES_ISSUED);
+            this.switchesSkipped = metrics.get(RoutingMetrics.SWITCHES_SKIPPED_ACTIVE);
+            this.switchesSuppressed = metrics.get(RoutingMetrics.SWITCHES_SUPPRESSED);
+            this.activeStateQueries = metrics.get(RoutingMetrics.ACTIVE_STATE_QUERIES);
+            this.routerSwitches = router.getRouterSwitches();
+            this.activeChanges = router.getActiveChanges();
+            this.flaps = router.getFlaps();
+        }
+
+        /** Decisions per second of wall time. */
+        public double decisionsPerSecond() {
+            return wallNanos == 0 ? 0 : evaluations * 1e9 / wallNanos;
+        }
+
+        /** Decisions per second of simulated time, the rate the phone would see. */
+        public double decisionsPerSimulatedSecond() {
+            return simulatedMillis == 0 ? 0 : evaluations * 1e3 / simulatedMillis;
+        }
+
+        public void print(PrintWriter pw) {
+            pw.printf("trace events:        %d over %d ms simulated, %.1f ms wall%n",
+                    traceEvents, simulatedMillis, wallNanos / 1e6);
+            pw.printf("route events:        %d%n", routeEvents);
+            pw.printf("decisions:           %d (%.0f/s wall, %.1f/s simulated)%n",
+                    evaluations, decisionsPerSecond(), decisionsPerSimulatedSecond());
+            pw.printf("switches issued:     %d (%d skipped as already active, %d held back by the flap guard)%n",
+                    switchesIssued, switchesSkipped, switchesSuppressed);
+            pw.printf("active state queries: %d%n", activeStateQueries);
+            pw.printf("active changes:      %d (%d by the router)%n", activeChanges, routerSwitches);
+            pw.printf("flaps:               %d%n", flaps);
+            metrics.eventToSwitch.dump(pw, "");
+            pw.flush();
+        }
+    }
+
+    private final double speed;
+
+    /** @param speed how many times faster than real time to replay, or 0 for no pacing */
+    public TraceRunner(double speed) {
+        this.speed = speed;
+    }
+
+    public Report run(Trace trace) throws InterruptedException {
+        return run(trace, new SimulatedRouter(trace.getPriority()));
+    }
+
+    public Report run(Trace trace, SimulatedRouter router) throws InterruptedException {
+        List<TraceEvent> events = trace.getEvents();
+        long start = System.nanoTime();
+        for (int i = 0; i < events.size(); i++) {
+            TraceEvent event = events.get(i);
+            if (speed > 0) {
+                long due = start + (long) (TimeUnit.MILLISECONDS.toNanos(event.time) / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+            router.apply(event);
+        }
+        router.finish();
+        return new Report(events.size(), System.nanoTime() - start, router);
+    }
+}
@@ -0,0 +1,65 @@
+package com.zm.forcedaudiorouter.sim;
+
+import com.zm.forcedaudiorouter.core.RouteEventCoalescer;
+
+import java.util.PriorityQueue;
+
+/** A scheduler whose time only moves when the simulation advances it. */
+public final class VirtualClock implements RouteEventCoalescer.Scheduler {
+
+    private static final class Task implements Comparable<Task> {
+        final long due;
+        final long seq;
+        final Runnable runnable;
+
+        Task(long due, long seq, Runnable runnable) {
+            this.due = due;
+            this.seq = seq;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            return due != o.due ? Long.compare(due, o.due) : Long.compare(seq, o.seq);
+        }
+    }
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private long now;
+    private long seq;
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        tasks.add(new Task(now + Math.max(0, delayMillis), seq++, task));
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        tasks.removeIf(t -> t.runnable == task);
+    }
+
+    /** Runs every task due up to and including the given time, then sets the clock to it. */
+    public void advanceTo(long time) {
+        Task next;
+        while ((next = tasks.peek()) != null && next.due <= time) {
+            tasks.poll();
+            now = next.due;
+            next.runnable.run();
+        }
+        now = Math.max(now, time);
+    }
+
+    /** Runs every pending task, however far in the future. */
+    public void drain() {
+        Task next;
+        while ((next = tasks.poll()) != null) {
+            now = Math.max(now, next.due);
+            next.runnable.run();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.zm.forcedaudiorouter.sim;
+
+import com.zm.forcedaudiorouter.core.FlapGuard;
+import com.zm.forcedaudiorouter.core.RoutingMetrics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceRunnerTest {
+
+    @Test
+    public void stormEvaluationsStayBoundedByTheCoalescingWindow() throws Exception {
+        Trace trace = TraceGenerator.storm(5, 50, 10_000);
+        TraceRunner.Report report = new TraceRunner(0).run(trace);
+
+        assertTrue(report.routeEvents > trace.getEvents().size());
+        // at most one evaluation per max delay window, plus the one left at the end, plus the
+        // retries of switches the flap guard held back
+        assertTrue(report.evaluations <= 10_000 / 500 + 1 + 1 + report.switchesSuppressed);
+        assertTrue(report.evaluations > 0);
+    }
+
+    @Test
+    public void replayIsDeterministic() throws Exception {
+        Trace trace = TraceGenerator.storm(5, 50, 5_000);
+        TraceRunner.Report a = new TraceRunner(0).run(trace);
+        TraceRunner.Report b = new TraceRunner(0).run(trace);
+
+        assertEquals(a.evaluations, b.evaluations);
+        assertEquals(a.switchesIssued, b.switchesIssued);
+        assertEquals(a.activeChanges, b.activeChanges);
+        assertEquals(a.flaps, b.flaps);
+    }
+
+    @Test
+    public void routerWinsBackPreferredSinkAndCountsTheFlap() throws Exception {
+        Trace trace = TraceGenerator.contention(2_000, 2_000);
+        SimulatedRouter router = new SimulatedRouter(trace.getPriority());
+        new TraceRunner(0).run(trace, router);
+
+        assertEquals(TraceGenerator.sinkMac(0), router.getAdapter().getA2dpProxy().getActiveDevice());
+        assertEquals(2, router.getRouterSwitches());
+        assertTrue(router.getFlaps() >= 1);
+    }
+
+    @Test
+    public void sustainedContentionCostsBoundedSwitches() throws Exception {
+        Trace trace = TraceGenerator.contention(500, 120_000);
+        SimulatedRouter router = new SimulatedRouter(trace.getPriority());
+        TraceRunner.Report report = new TraceRunner(0).run(trace, router);
+
+        // one force every 500 ms would be 240 switches without the guard
+        assertTrue(report.routerSwitches <= 16);
+        assertTrue(report.switchesSuppressed > 0);
+        assertTrue(router.getMetrics().get(RoutingMetrics.FLAPS_DETECTED) >= FlapGuard.FLAP_THRESHOLD);
+    }
+
+    @Test
+    public void traceRoundTrips() throws IOException {
+        Trace trace = TraceGenerator.storm(3, 100, 1_000);
+        StringWriter out = new StringWriter();
+        trace.write(out);
+
+        Trace read = Trace.read(new StringReader(out.toString()));
+        StringWriter again = new StringWriter();
+        read.write(again);
+        assertEquals(out.toString(), again.toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTimeGoingBackwards() throws IOException {
+        Trace.read(new StringReader("100 ROUTE_CHANGE\n50 ROUTE_CHANGE\n"));
+    }
+}